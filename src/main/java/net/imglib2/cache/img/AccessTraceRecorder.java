@@ -0,0 +1,151 @@
+package net.imglib2.cache.img;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import net.imglib2.img.cell.CellGrid;
+
+/**
+ * Records the sequence of cell requests and removals of a {@link N5CellCache}
+ * to a text file, which can be replayed by {@link AccessTraceReplay}.
+ * <p>
+ * The file starts with the image and cell dimensions as comment lines,
+ * followed by one line {@code <nanoseconds> <G|R> <cell index>} per request
+ * ({@code G}) or removal ({@code R}), where the time is relative to the
+ * creation of the recorder. If the image is appended to, a further dimensions
+ * line records its new size. A failure to write an event stops the recording
+ * without affecting the cache, and is reported by {@link #failure()}.
+ * </p>
+ * <p>
+ * The {@link N5CellCache} is the loader behind the in-memory cache of an
+ * image, hence only requests that missed the in-memory cache are recorded:
+ * hits never reach it. A replay therefore reproduces the stream of misses of
+ * the recorded configuration, not every pixel access.
+ * </p>
+ */
+public class AccessTraceRecorder implements Closeable {
+
+    static final String DIMENSIONS = "# dimensions";
+
+    static final String CELL_DIMENSIONS = "# cellDimensions";
+
+    static final char GET = 'G';
+
+    static final char REMOVAL = 'R';
+
+    private final BufferedWriter m_out;
+
+    private final long m_start;
+
+    private boolean m_closed = false;
+
+    // the failure that stopped the recording, or null
+    private IOException m_failure;
+
+    /**
+     * @param trace the file to write the trace to, an existing file is overwritten
+     * @param grid the cell grid of the traced image
+     * @throws IOException if the file can not be created
+     */
+    public AccessTraceRecorder(final Path trace, final CellGrid grid) throws IOException {
+        m_out = Files.newBufferedWriter(trace, StandardCharsets.UTF_8);
+        writeDimensions(grid);
+        m_out.write(CELL_DIMENSIONS);
+        for (int d = 0; d < grid.numDimensions(); ++d) {
+            m_out.write(" " + grid.cellDimension(d));
+        }
+        m_out.newLine();
+        m_start = System.nanoTime();
+    }
+
+    /**
+     * Records a request of a cell.
+     */
+    public void get(final long key) {
+        record(GET, key);
+    }
+
+    /**
+     * Records the removal of a cell from the in-memory cache.
+     */
+    public void removal(final long key) {
+        record(REMOVAL, key);
+    }
+
+    /**
+     * Records the new size of an image that grew along its last dimension.
+     */
+    synchronized void grow(final CellGrid grid) {
+        if (m_closed) {
+            return;
+        }
+        try {
+            writeDimensions(grid);
+        } catch (final IOException e) {
+            stop(e);
+        }
+    }
+
+    private void writeDimensions(final CellGrid grid) throws IOException {
+        m_out.write(DIMENSIONS);
+        for (final long dim : grid.getImgDimensions()) {
+            m_out.write(" " + dim);
+        }
+        m_out.newLine();
+    }
+
+    private synchronized void record(final char event, final long key) {
+        if (m_closed) {
+            return;
+        }
+        try {
+            m_out.write(Long.toString(System.nanoTime() - m_start));
+            m_out.write(' ');
+            m_out.write(event);
+            m_out.write(' ');
+            m_out.write(Long.toString(key));
+            m_out.newLine();
+        } catch (final IOException e) {
+            stop(e);
+        }
+    }
+
+    // tracing must not break the cache, the trace is incomplete from here on and is not continued
+    private void stop(final IOException e) {
+        m_failure = e;
+        m_closed = true;
+        try {
+            m_out.close();
+        } catch (final IOException suppressed) {
+            e.addSuppressed(suppressed);
+        }
+    }
+
+    /**
+     * @return whether events are still recorded, i.e. the recorder is neither
+     *         closed nor stopped by a failure
+     */
+    public synchronized boolean isRecording() {
+        return !m_closed;
+    }
+
+    /**
+     * @return the failure to write an event that stopped the recording, or
+     *         {@code null} if the trace is complete so far
+     */
+    public synchronized IOException failure() {
+        return m_failure;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!m_closed) {
+            m_closed = true;
+            m_out.close();
+        }
+    }
+}
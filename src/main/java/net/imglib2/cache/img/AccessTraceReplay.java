@@ -0,0 +1,439 @@
+package net.imglib2.cache.img;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.janelia.saalfeldlab.n5.Bzip2Compression;
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.Lz4Compression;
+import org.janelia.saalfeldlab.n5.N5FSReader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.XzCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.N5CachedCellImgOptions.OffHeapPolicy;
+import net.imglib2.cache.img.N5CachedCellImgOptions.PersistencePolicy;
+import net.imglib2.cache.img.N5CachedCellImgOptions.Shuffle;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions.CacheType;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.iterator.LocalizingIntervalIterator;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Replays a trace recorded by an {@link AccessTraceRecorder} against
+ * {@link N5CachedCellImg}s with different {@link N5CachedCellImgOptions}, to
+ * compare configurations offline.
+ * <p>
+ * Every recorded request is mapped to the cells of the replayed configuration
+ * that intersect the recorded cell, so traces can be replayed with different
+ * cell dimensions. The trace contains only the requests that missed the
+ * in-memory cache of the recorded configuration, so the replay sees fewer
+ * repeated requests than the application did and its hit rate is a lower
+ * bound. Recorded removals are not replayed, because evictions depend on the
+ * replayed configuration. Cells are computed by a loader
+ * supplied by the caller, e.g. one copying them from the recorded dataset
+ * with {@link #datasetLoader(N5Reader, String)}, such that compression and
+ * encodings see the recorded data; by default they are left empty.
+ * </p>
+ */
+public class AccessTraceReplay {
+
+    private static final String SOURCE = "source=";
+
+    /**
+     * A recorded trace.
+     */
+    public static class Trace {
+
+        private final long[] m_dimensions;
+
+        private final int[] m_cellDimensions;
+
+        private final long[] m_requests;
+
+        Trace(final long[] dimensions, final int[] cellDimensions, final long[] requests) {
+            m_dimensions = dimensions;
+            m_cellDimensions = cellDimensions;
+            m_requests = requests;
+        }
+
+        /**
+         * Reads a trace written by an {@link AccessTraceRecorder}. The trace of
+         * an image that was appended to is replayed with the last recorded
+         * dimensions.
+         *
+         * @param file the trace file
+         * @return the trace
+         * @throws IOException if the file can not be read or is no valid trace
+         */
+        public static Trace read(final Path file) throws IOException {
+            long[] dimensions = null;
+            int[] cellDimensions = null;
+            final List<Long> requests = new ArrayList<>();
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith(AccessTraceRecorder.CELL_DIMENSIONS)) {
+                        final String[] values = values(line, AccessTraceRecorder.CELL_DIMENSIONS);
+                        cellDimensions = new int[values.length];
+                        for (int d = 0; d < values.length; ++d) {
+                            cellDimensions[d] = Integer.parseInt(values[d]);
+                        }
+                    } else if (line.startsWith(AccessTraceRecorder.DIMENSIONS)) {
+                        final String[] values = values(line, AccessTraceRecorder.DIMENSIONS);
+                        dimensions = new long[values.length];
+                        for (int d = 0; d < values.length; ++d) {
+                            dimensions[d] = Long.parseLong(values[d]);
+                        }
+                    } else if (!line.isEmpty()) {
+                        final String[] event = line.split(" ");
+                        if (event.length != 3) {
+                            throw new IOException("Invalid trace event: " + line);
+                        }
+                        if (event[1].charAt(0) == AccessTraceRecorder.GET) {
+                            requests.add(Long.parseLong(event[2]));
+                        }
+                    }
+                }
+            }
+            if (dimensions == null || cellDimensions == null) {
+                throw new IOException("The trace " + file + " does not specify the image and cell dimensions");
+            }
+            final long[] requestArray = new long[requests.size()];
+            for (int i = 0; i < requestArray.length; ++i) {
+                requestArray[i] = requests.get(i);
+            }
+            return new Trace(dimensions, cellDimensions, requestArray);
+        }
+
+        private static String[] values(final String line, final String prefix) {
+            return line.substring(prefix.length()).trim().split(" ");
+        }
+
+        public long[] dimensions() {
+            return m_dimensions.clone();
+        }
+
+        public int[] cellDimensions() {
+            return m_cellDimensions.clone();
+        }
+
+        /**
+         * @return the number of recorded requests
+         */
+        public int numRequests() {
+            return m_requests.length;
+        }
+    }
+
+    /**
+     * The outcome of replaying a trace with one configuration.
+     */
+    public static class Result {
+
+        private final long m_requests;
+
+        private final N5CellCacheStatistics m_statistics;
+
+        private final long m_wallClockNanos;
+
+        Result(final long requests, final N5CellCacheStatistics statistics, final long wallClockNanos) {
+            m_requests = requests;
+            m_statistics = statistics;
+            m_wallClockNanos = wallClockNanos;
+        }
+
+        /**
+         * @return the number of cell requests issued to the in-memory cache
+         */
+        public long requests() {
+            return m_requests;
+        }
+
+        /**
+         * @return the fraction of requests served by the in-memory cache
+         */
+        public double hitRate() {
+            return m_requests == 0 ? 1 : 1 - (double) m_statistics.requests() / m_requests;
+        }
+
+        public N5CellCacheStatistics statistics() {
+            return m_statistics;
+        }
+
+        public long wallClockNanos() {
+            return m_wallClockNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests = %d, hitRate = %.4f, n5Reads = %d, bytesRead = %d, n5Writes = %d, "
+                    + "bytesWritten = %d, skippedWrites = %d, loaderCalls = %d, wallClock = %.3f s", m_requests,
+                    hitRate(), m_statistics.n5Reads(), m_statistics.bytesRead(), m_statistics.n5Writes(),
+                    m_statistics.bytesWritten(), m_statistics.skippedWrites(), m_statistics.loaderCalls(),
+                    m_wallClockNanos / 1e9);
+        }
+    }
+
+    /**
+     * Replays a trace against a new {@link N5CachedCellImg} in a temporary
+     * cache directory, with cells that are left empty.
+     *
+     * @param trace the trace
+     * @param type the pixel type of the replayed image
+     * @param options the configuration to evaluate, the cache directory is
+     *            replaced by a temporary one
+     * @return hit rate, I/O and timing of the replay
+     * @throws IOException if the cache can not be created or flushed
+     */
+    public static <T extends NativeType<T>> Result replay(final Trace trace, final T type,
+            final N5CachedCellImgOptions options) throws IOException {
+        return replay(trace, type, options, cell -> {});
+    }
+
+    /**
+     * Replays a trace against a new {@link N5CachedCellImg} in a temporary
+     * cache directory.
+     *
+     * @param trace the trace
+     * @param type the pixel type of the replayed image
+     * @param options the configuration to evaluate, the cache directory is
+     *            replaced by a temporary one
+     * @param loader computes the cells of the replayed image
+     * @return hit rate, I/O and timing of the replay
+     * @throws IOException if the cache can not be created or flushed
+     */
+    public static <T extends NativeType<T>> Result replay(final Trace trace, final T type,
+            final N5CachedCellImgOptions options, final CellLoader<T> loader) throws IOException {
+        final Path cacheDir = Files.createTempDirectory("n5-trace-replay");
+        final N5CachedCellImgOptions replayOptions = options.cacheDirectory(cacheDir).deleteCacheDirectoryOnExit(true);
+        final N5CachedCellImg<T, ?> img = new N5CachedCellImgFactory<>(type, replayOptions).create(trace.m_dimensions,
+                loader);
+        final CellGrid recordedGrid = new CellGrid(trace.m_dimensions, trace.m_cellDimensions);
+        final CellGrid grid = img.getCellGrid();
+        final int n = grid.numDimensions();
+        final long[] recordedGridDims = recordedGrid.getGridDimensions();
+        final long[] gridDims = grid.getGridDimensions();
+
+        final long[] recordedPosition = new long[n];
+        final long[] min = new long[n];
+        final long[] max = new long[n];
+        final long[] position = new long[n];
+        long requests = 0;
+
+        final long start = System.nanoTime();
+        try {
+            for (final long recordedKey : trace.m_requests) {
+                IntervalIndexer.indexToPosition(recordedKey, recordedGridDims, recordedPosition);
+                for (int d = 0; d < n; ++d) {
+                    final long cellMin = recordedPosition[d] * recordedGrid.cellDimension(d);
+                    final long cellMax = Math.min(cellMin + recordedGrid.cellDimension(d), trace.m_dimensions[d]) - 1;
+                    min[d] = cellMin / grid.cellDimension(d);
+                    max[d] = cellMax / grid.cellDimension(d);
+                }
+                final LocalizingIntervalIterator it = new LocalizingIntervalIterator(new FinalInterval(min, max));
+                while (it.hasNext()) {
+                    it.fwd();
+                    it.localize(position);
+                    img.getCache().get(IntervalIndexer.positionToIndex(position, gridDims));
+                    ++requests;
+                }
+            }
+        } catch (final ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            // writes the remaining cells, which counts towards the replay
+            img.close();
+        }
+        final long wallClock = System.nanoTime() - start;
+        return new Result(requests, img.getN5CellCache().statistics(), wallClock);
+    }
+
+    /**
+     * Creates a loader copying the cells from a dataset, e.g. the one the trace
+     * was recorded with, such that the replay reads and writes the recorded
+     * data. The dataset is opened lazily and must have the dimensions of the
+     * trace and the pixel type of the replay.
+     *
+     * @param n5 the container of the dataset
+     * @param dataset the dataset
+     * @return the loader
+     * @throws IOException if the dataset can not be opened
+     */
+    public static <T extends NativeType<T>> CellLoader<T> datasetLoader(final N5Reader n5, final String dataset)
+            throws IOException {
+        final RandomAccessibleInterval<T> source = N5Utils.open(n5, dataset);
+        return cell -> {
+            final RandomAccess<T> in = source.randomAccess();
+            final Cursor<T> out = cell.localizingCursor();
+            while (out.hasNext()) {
+                out.fwd();
+                in.setPosition(out);
+                out.get().set(in.get());
+            }
+        };
+    }
+
+    /**
+     * Replays a trace with several configurations and prints the results.
+     * <p>
+     * Usage: {@code AccessTraceReplay <trace> [uint8|uint16|int32|int64|float32|float64] [source=<container>:<dataset>] <config>...},
+     * where the optional source is a local N5 dataset the cells are copied from, see
+     * {@link #datasetLoader(N5Reader, String)}, and each
+     * configuration is a comma-separated list of {@code cells=64x64x64}, {@code max=<maxCacheSize>}, {@code cache=bounded|softref},
+     * {@code compression=raw|gzip|bzip2|lz4|xz}, {@code offHeap=<bytes>},
+     * {@code offHeapPolicy=lru|tiny_lfu}, {@code shuffle=none|byte|bit},
+     * {@code chunks=<compressionChunkSize>},
+     * {@code persistence=always|cost_aware}, e.g.
+     * {@code cells=32x32x32,max=500,compression=lz4}. Unspecified cell dimensions default to the recorded ones.
+     * </p>
+     */
+    @SuppressWarnings("rawtypes")
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: AccessTraceReplay <trace> [uint8|uint16|int32|int64|float32|float64] "
+                    + "[source=<container>:<dataset>] <config>...");
+            return;
+        }
+        final Trace trace = Trace.read(Paths.get(args[0]));
+        int first = 1;
+        NativeType<?> type = new UnsignedByteType();
+        if (args.length > first && !args[first].contains("=")) {
+            type = parseType(args[first]);
+            ++first;
+        }
+        // cells are left empty without a source
+        CellLoader loader = null;
+        if (args.length > first && args[first].startsWith(SOURCE)) {
+            final String source = args[first].substring(SOURCE.length());
+            final int separator = source.lastIndexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid source " + source + ", expected <container>:<dataset>");
+            }
+            loader = datasetLoader(new N5FSReader(source.substring(0, separator)), source.substring(separator + 1));
+            ++first;
+        }
+        System.out.println("Replaying " + trace.numRequests() + " requests of " + args[0]);
+        if (first == args.length) {
+            replay(trace, type, loader, "");
+        }
+        for (int i = first; i < args.length; ++i) {
+            replay(trace, type, loader, args[i]);
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static void replay(final Trace trace, final NativeType type, final CellLoader loader, final String config)
+            throws IOException {
+        final N5CachedCellImgOptions options = parseOptions(trace, config);
+        final Result result = loader == null ? replay(trace, type, options) : replay(trace, type, options, loader);
+        System.out.println((config.isEmpty() ? "recorded cells" : config) + ": " + result);
+    }
+
+    private static NativeType<?> parseType(final String type) {
+        switch (type) {
+            case "uint8":
+                return new UnsignedByteType();
+            case "uint16":
+                return new UnsignedShortType();
+            case "int32":
+                return new IntType();
+            case "int64":
+                return new LongType();
+            case "float32":
+                return new FloatType();
+            case "float64":
+                return new DoubleType();
+            default:
+                throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
+    static N5CachedCellImgOptions parseOptions(final Trace trace, final String config) {
+        N5CachedCellImgOptions options = N5CachedCellImgOptions.options().cellDimensions(trace.m_cellDimensions);
+        for (final String setting : config.split(",")) {
+            if (setting.isEmpty()) {
+                continue;
+            }
+            final String[] keyValue = setting.split("=", 2);
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException("Invalid setting " + setting);
+            }
+            final String value = keyValue[1];
+            switch (keyValue[0]) {
+                case "cells":
+                    final String[] dims = value.split("x");
+                    final int[] cellDimensions = new int[dims.length];
+                    for (int d = 0; d < dims.length; ++d) {
+                        cellDimensions[d] = Integer.parseInt(dims[d]);
+                    }
+                    options = options.cellDimensions(cellDimensions);
+                    break;
+                case "max":
+                    options = options.maxCacheSize(Long.parseLong(value));
+                    break;
+                case "cache":
+                    options = options.cacheType(CacheType.valueOf(value.toUpperCase()));
+                    break;
+                case "compression":
+                    options = options.compression(parseCompression(value));
+                    break;
+                case "offHeap":
+                    options = options.offHeapCacheSize(Long.parseLong(value));
+                    break;
+                case "offHeapPolicy":
+                    options = options.offHeapPolicy(OffHeapPolicy.valueOf(value.toUpperCase()));
+                    break;
+                case "chunks":
+                    options = options.compressionChunkSize(Integer.parseInt(value));
+                    break;
+                case "shuffle":
+                    options = options.shuffle(Shuffle.valueOf(value.toUpperCase()));
+                    break;
+                case "persistence":
+                    options = options.persistencePolicy(PersistencePolicy.valueOf(value.toUpperCase()));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown setting " + keyValue[0]);
+            }
+        }
+        return options;
+    }
+
+    private static Compression parseCompression(final String compression) {
+        switch (compression) {
+            case "raw":
+                return new RawCompression();
+            case "gzip":
+                return new GzipCompression();
+            case "bzip2":
+                return new Bzip2Compression();
+            case "lz4":
+                return new Lz4Compression();
+            case "xz":
+                return new XzCompression();
+            default:
+                throw new IllegalArgumentException("Unknown compression " + compression);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package net.imglib2.cache.img;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Transforms the serialized data of a cell, as written by its
+ * {@link AccessIo}, into the payload of an N5 block and back. The payload is
+ * stored in a {@code UINT8} dataset and compressed by the N5 compression of
+ * the dataset as usual.
+ * <p>
+ * The {@link #name() name} of the codec is recorded in the
+ * {@link #ENCODING_ATTRIBUTE} of the dataset, such that a dataset is only
+ * reopened with the codec it was written with.
+ * </p>
+ */
+public interface BlockCodec {
+
+    /**
+     * The name of the dataset attribute holding the {@link #name()} of the
+     * codec the blocks of the dataset were encoded with.
+     */
+    String ENCODING_ATTRIBUTE = "cacheEncoding";
+
+    /**
+     * @return the identifier of this codec and its parameters
+     */
+    String name();
+
+    /**
+     * @param data the big-endian serialized entities of a cell, from position
+     *            {@code 0} to its limit
+     * @param numEntities the number of entities of the cell
+     * @return the encoded data, from position {@code 0} to its limit
+     */
+    ByteBuffer encode(ByteBuffer data, int numEntities);
+
+    /**
+     * @param data the encoded data, from its position to its limit
+     * @param numEntities the number of entities of the cell
+     * @return the big-endian serialized entities of the cell, from position
+     *         {@code 0} to its limit
+     */
+    ByteBuffer decode(ByteBuffer data, int numEntities);
+
+    /**
+     * @param next the codec applied to the output of this codec
+     * @return a codec applying this codec and then {@code next}
+     */
+    default BlockCodec andThen(final BlockCodec next) {
+        final BlockCodec first = this;
+        return new BlockCodec() {
+
+            @Override
+            public String name() {
+                return first.name() + "+" + next.name();
+            }
+
+            @Override
+            public ByteBuffer encode(final ByteBuffer data, final int numEntities) {
+                return next.encode(first.encode(data, numEntities), numEntities);
+            }
+
+            @Override
+            public ByteBuffer decode(final ByteBuffer data, final int numEntities) {
+                return first.decode(next.decode(data, numEntities), numEntities);
+            }
+        };
+    }
+}
@@ -0,0 +1,401 @@
+package net.imglib2.cache.img;
+
+import java.util.ArrayDeque;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the block reads, writes and existence probes of a {@link N5CellCache}
+ * on an {@link Executor}, with a limit on the number of operations in flight.
+ * <p>
+ * Operations beyond the limit are queued and dispatched as soon as a running
+ * operation finishes, so the limit does not tie up threads. On high-latency
+ * storage the limit can be large; on Java 21+ the executor can then be a
+ * virtual-thread-per-task executor such that hundreds of operations can wait
+ * for the storage without occupying as many OS threads. By default, a shared
+ * pool of daemon threads is used, which is shut down when the last executor
+ * using it is {@link #close() closed}.
+ * </p>
+ * <p>
+ * Queued operations are dispatched in the order of submission, unless reads
+ * have priority: then queued reads are dispatched before queued writes, such
+ * that a burst of evictions does not stall the reads a viewer waits for. Two
+ * rules keep writes from starving. A write that waited longer than the maximum
+ * write delay is dispatched next, and writes get at least the minimum write
+ * share of the dispatched operations while they are queued.
+ * </p>
+ * <p>
+ * Background reads, e.g. of a warm restart, form a third class below both:
+ * they are only dispatched while no read or write is queued, such that they
+ * never delay an operation that was submitted on demand.
+ * </p>
+ */
+public class BlockIoExecutor implements AutoCloseable {
+
+    private static ExecutorService sharedExecutor;
+
+    // the number of open executors using the shared pool
+    private static int sharedExecutorUsers = 0;
+
+    private final Executor m_executor;
+
+    // whether the shared pool is used and not released yet
+    private boolean m_sharedExecutor;
+
+    private final int m_maxConcurrency;
+
+    private final boolean m_readPriority;
+
+    private final long m_maxWriteDelayNanos;
+
+    // the credit a write gets for each read dispatched before it
+    private final double m_writeCreditPerRead;
+
+    private final ArrayDeque<Operation<?>> m_reads = new ArrayDeque<>();
+
+    private final ArrayDeque<Operation<?>> m_writes = new ArrayDeque<>();
+
+    private final ArrayDeque<Operation<?>> m_backgroundReads = new ArrayDeque<>();
+
+    // the sequence numbers of the writes that have not finished yet
+    private final TreeSet<Long> m_pendingWrites = new TreeSet<>();
+
+    private long m_sequence = 0;
+
+    private double m_writeCredit = 0;
+
+    private int m_running = 0;
+
+    // whether a thread runs the dispatch loop, other threads leave the dispatching to it
+    private boolean m_dispatching = false;
+
+    private boolean m_closed = false;
+
+    /**
+     * @param executor the executor running the operations, or {@code null} to use a shared pool of daemon threads
+     * @param maxConcurrency the maximum number of operations in flight
+     */
+    public BlockIoExecutor(final Executor executor, final int maxConcurrency) {
+        this(executor, maxConcurrency, false, 0, 0);
+    }
+
+    /**
+     * @param executor the executor running the operations, or {@code null} to use a shared pool of daemon threads
+     * @param maxConcurrency the maximum number of operations in flight
+     * @param readPriority whether queued reads are dispatched before queued writes
+     * @param maxWriteDelayMillis the time after which a queued write is dispatched before reads, if reads have
+     *            priority
+     * @param minWriteShare the minimum share of writes among the dispatched operations while writes are queued, in
+     *            {@code [0, 1)}, if reads have priority
+     */
+    public BlockIoExecutor(final Executor executor, final int maxConcurrency, final boolean readPriority,
+            final long maxWriteDelayMillis, final double minWriteShare) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("The maximum number of concurrent I/O operations must be positive");
+        }
+        if (maxWriteDelayMillis < 0) {
+            throw new IllegalArgumentException("The maximum write delay must not be negative");
+        }
+        if (minWriteShare < 0 || minWriteShare >= 1) {
+            throw new IllegalArgumentException("The minimum write share must be in [0, 1)");
+        }
+        m_sharedExecutor = executor == null;
+        m_executor = m_sharedExecutor ? acquireSharedExecutor() : executor;
+        m_maxConcurrency = maxConcurrency;
+        m_readPriority = readPriority;
+        m_maxWriteDelayNanos = maxWriteDelayMillis * 1_000_000;
+        m_writeCreditPerRead = minWriteShare / (1 - minWriteShare);
+    }
+
+    private static synchronized ExecutorService acquireSharedExecutor() {
+        if (sharedExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            sharedExecutor = Executors.newCachedThreadPool(r -> {
+                final Thread thread = new Thread(r, "n5-cache-io-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        ++sharedExecutorUsers;
+        return sharedExecutor;
+    }
+
+    private static synchronized void releaseSharedExecutor() {
+        if (--sharedExecutorUsers == 0) {
+            // idle threads would otherwise only end after the keep-alive time
+            sharedExecutor.shutdown();
+            sharedExecutor = null;
+        }
+    }
+
+    /**
+     * Schedules a block read or existence probe.
+     *
+     * @param task the read
+     * @return a future providing the result of the read
+     */
+    public <R> CompletableFuture<R> submitRead(final Callable<R> task) {
+        return submit(task, false, false);
+    }
+
+    /**
+     * Schedules a block read that is only dispatched while no other read or
+     * write is queued.
+     *
+     * @param task the read
+     * @return a future providing the result of the read
+     */
+    public <R> CompletableFuture<R> submitBackgroundRead(final Callable<R> task) {
+        return submit(task, false, true);
+    }
+
+    /**
+     * Schedules a block read and waits for its result.
+     *
+     * @param task the read
+     * @return the result of the read
+     * @throws Exception the exception thrown by the read
+     */
+    public <R> R read(final Callable<R> task) throws Exception {
+        return get(submitRead(task));
+    }
+
+    /**
+     * Schedules a background read and waits for its result.
+     *
+     * @param task the read
+     * @return the result of the read
+     * @throws Exception the exception thrown by the read
+     * @see #submitBackgroundRead(Callable)
+     */
+    public <R> R backgroundRead(final Callable<R> task) throws Exception {
+        return get(submitBackgroundRead(task));
+    }
+
+    private static <R> R get(final CompletableFuture<R> read) throws Exception {
+        try {
+            return read.get();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception)cause : e;
+        }
+    }
+
+    /**
+     * Schedules a block write.
+     *
+     * @param task the write
+     * @return a future that completes when the block is written
+     */
+    public CompletableFuture<Void> submitWrite(final Callable<Void> task) {
+        return submit(task, true, false);
+    }
+
+    /**
+     * Waits until all writes submitted before this call have finished. Writes
+     * submitted meanwhile are not waited for, such that a steady stream of
+     * writes does not keep the caller waiting.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void awaitWrites() throws InterruptedException {
+        final long submitted = m_sequence;
+        while (!m_pendingWrites.isEmpty() && m_pendingWrites.first() < submitted) {
+            wait();
+        }
+    }
+
+    /**
+     * Stops accepting operations. Queued and running operations still finish,
+     * after which the shared pool of daemon threads is released, if it is used.
+     * The executor passed to the constructor is not shut down.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (m_closed) {
+                return;
+            }
+            m_closed = true;
+        }
+        dispatch();
+    }
+
+    /**
+     * @return the number of operations that are queued or running
+     */
+    public synchronized int queueDepth() {
+        return m_reads.size() + m_writes.size() + m_backgroundReads.size() + m_running;
+    }
+
+    /**
+     * @return the number of reads and existence probes waiting to be dispatched
+     */
+    public synchronized int queuedReads() {
+        return m_reads.size();
+    }
+
+    /**
+     * @return the number of background reads waiting to be dispatched
+     */
+    public synchronized int queuedBackgroundReads() {
+        return m_backgroundReads.size();
+    }
+
+    /**
+     * @return the number of writes waiting to be dispatched
+     */
+    public synchronized int queuedWrites() {
+        return m_writes.size();
+    }
+
+    /**
+     * @return the number of operations in flight
+     */
+    public synchronized int runningOperations() {
+        return m_running;
+    }
+
+    private <R> CompletableFuture<R> submit(final Callable<R> task, final boolean write, final boolean background) {
+        final Operation<R> operation;
+        synchronized (this) {
+            if (m_closed) {
+                throw new IllegalStateException("The block I/O executor is closed");
+            }
+            operation = new Operation<>(task, write, m_sequence++);
+            if (write) {
+                m_pendingWrites.add(operation.m_sequence);
+                m_writes.add(operation);
+            } else if (background) {
+                m_backgroundReads.add(operation);
+            } else {
+                m_reads.add(operation);
+            }
+        }
+        dispatch();
+        return operation.m_future;
+    }
+
+    /**
+     * Hands queued operations to the executor while the limit allows. Only one
+     * thread runs the loop at a time; a call while another thread runs it
+     * returns at once, since that thread checks the queues again before it
+     * stops. Hence an executor that runs operations on the calling thread does
+     * not nest a dispatch in every finished operation.
+     */
+    private void dispatch() {
+        synchronized (this) {
+            if (m_dispatching) {
+                return;
+            }
+            m_dispatching = true;
+        }
+        while (true) {
+            final Operation<?> next;
+            synchronized (this) {
+                if (m_running >= m_maxConcurrency || m_reads.isEmpty() && m_writes.isEmpty()
+                    && m_backgroundReads.isEmpty()) {
+                    m_dispatching = false;
+                    releaseIfDone();
+                    return;
+                }
+                next = next();
+                ++m_running;
+            }
+            try {
+                m_executor.execute(next);
+            } catch (final RejectedExecutionException e) {
+                // e.g. the executor passed to the constructor was shut down
+                next.fail(e);
+            }
+        }
+    }
+
+    // must be called while holding the lock
+    private void releaseIfDone() {
+        if (m_closed && m_sharedExecutor && m_running == 0 && m_reads.isEmpty() && m_writes.isEmpty()
+            && m_backgroundReads.isEmpty()) {
+            m_sharedExecutor = false;
+            releaseSharedExecutor();
+        }
+    }
+
+    // picks the next queued operation, must be called while holding the lock and with a non-empty queue
+    private Operation<?> next() {
+        if (m_reads.isEmpty() && m_writes.isEmpty()) {
+            return m_backgroundReads.poll();
+        }
+        if (m_writes.isEmpty()) {
+            m_writeCredit = 0;
+            return m_reads.poll();
+        }
+        if (m_reads.isEmpty()) {
+            return m_writes.poll();
+        }
+        if (!m_readPriority) {
+            return (m_reads.peek().m_sequence < m_writes.peek().m_sequence ? m_reads : m_writes).poll();
+        }
+        if (System.nanoTime() - m_writes.peek().m_submitted >= m_maxWriteDelayNanos || m_writeCredit >= 1) {
+            m_writeCredit = Math.max(0, m_writeCredit - 1);
+            return m_writes.poll();
+        }
+        m_writeCredit += m_writeCreditPerRead;
+        return m_reads.poll();
+    }
+
+    private void finished(final Operation<?> operation) {
+        synchronized (this) {
+            --m_running;
+            if (operation.m_write) {
+                m_pendingWrites.remove(operation.m_sequence);
+                notifyAll();
+            }
+        }
+        dispatch();
+    }
+
+    private final class Operation<R> implements Runnable {
+
+        private final Callable<R> m_task;
+
+        private final boolean m_write;
+
+        private final long m_sequence;
+
+        private final long m_submitted = System.nanoTime();
+
+        private final CompletableFuture<R> m_future = new CompletableFuture<>();
+
+        Operation(final Callable<R> task, final boolean write, final long sequence) {
+            m_task = task;
+            m_write = write;
+            m_sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            try {
+                m_future.complete(m_task.call());
+            } catch (final Throwable t) {
+                m_future.completeExceptionally(t);
+            } finally {
+                finished(this);
+            }
+        }
+
+        void fail(final Throwable t) {
+            try {
+                m_future.completeExceptionally(t);
+            } finally {
+                finished(this);
+            }
+        }
+    }
+}
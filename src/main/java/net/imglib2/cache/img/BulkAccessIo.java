@@ -0,0 +1,163 @@
+package net.imglib2.cache.img;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+
+/**
+ * Serializes cell accesses like an {@link AccessIo}, i.e. big-endian, but
+ * converts the byte order of whole arrays at once instead of element by
+ * element.
+ * <p>
+ * Accesses backed by {@code byte[]}, {@code short[]}, {@code int[]},
+ * {@code long[]}, {@code float[]} or {@code double[]} arrays are copied
+ * through NIO view buffers, whose bulk transfers the JVM compiles to
+ * vectorized byte swapping. All other accesses are delegated to the
+ * {@link AccessIo}. The positions of the passed buffers are not changed.
+ * </p>
+ *
+ * @param <A> access type
+ */
+public class BulkAccessIo<A> {
+
+    private final AccessIo<A> m_accessIo;
+
+    // an empty access creating accesses of the same kind, or null if accesses are delegated
+    private final ArrayDataAccess<?> m_prototype;
+
+    /**
+     * @param accessIo serializes the accesses that cannot be converted in bulk
+     */
+    public BulkAccessIo(final AccessIo<A> accessIo) {
+        m_accessIo = accessIo;
+        final A empty = accessIo.load(ByteBuffer.allocate(0), 0);
+        m_prototype = empty instanceof ArrayDataAccess
+            && isSupported(((ArrayDataAccess<?>)empty).getCurrentStorageArray(), accessIo.getBytesPerElement())
+                ? (ArrayDataAccess<?>)empty : null;
+    }
+
+    /**
+     * @return whether accesses are converted in bulk rather than by the {@link AccessIo}
+     */
+    public boolean isBulk() {
+        return m_prototype != null;
+    }
+
+    /**
+     * @return the number of bytes of a serialized entity
+     */
+    public int getBytesPerElement() {
+        return m_accessIo.getBytesPerElement();
+    }
+
+    /**
+     * @param bytes the serialized entities, starting at the position of the buffer
+     * @param numEntities the number of entities
+     * @return a new access holding the entities
+     */
+    @SuppressWarnings("unchecked")
+    public A load(final ByteBuffer bytes, final int numEntities) {
+        if (m_prototype == null) {
+            return m_accessIo.load(bytes, numEntities);
+        }
+        final ArrayDataAccess<?> access = (ArrayDataAccess<?>)m_prototype.createArray(numEntities);
+        fromBytes(bytes, access.getCurrentStorageArray(), numEntities);
+        return (A)access;
+    }
+
+    /**
+     * @param array a primitive array of the storage type of the accesses, e.g. the data of an N5 block
+     * @param numEntities the number of entities
+     * @return a new access holding a copy of the first {@code numEntities} entities of the array, or {@code null} if
+     *         the array does not match the storage of the accesses
+     */
+    @SuppressWarnings("unchecked")
+    public A copyOf(final Object array, final int numEntities) {
+        if (m_prototype == null || array == null
+            || array.getClass() != m_prototype.getCurrentStorageArray().getClass()
+            || Array.getLength(array) < numEntities) {
+            return null;
+        }
+        final ArrayDataAccess<?> access = (ArrayDataAccess<?>)m_prototype.createArray(numEntities);
+        System.arraycopy(array, 0, access.getCurrentStorageArray(), 0, numEntities);
+        return (A)access;
+    }
+
+    /**
+     * @param access the access
+     * @param out receives the serialized entities, starting at its position
+     * @param numEntities the number of entities
+     */
+    public void save(final A access, final ByteBuffer out, final int numEntities) {
+        if (m_prototype == null) {
+            m_accessIo.save(access, out, numEntities);
+        } else {
+            toBytes(((ArrayDataAccess<?>)access).getCurrentStorageArray(), out, numEntities);
+        }
+    }
+
+    private static boolean isSupported(final Object array, final int bytesPerElement) {
+        return array instanceof byte[] && bytesPerElement == Byte.BYTES
+            || array instanceof short[] && bytesPerElement == Short.BYTES
+            || array instanceof int[] && bytesPerElement == Integer.BYTES
+            || array instanceof long[] && bytesPerElement == Long.BYTES
+            || array instanceof float[] && bytesPerElement == Float.BYTES
+            || array instanceof double[] && bytesPerElement == Double.BYTES;
+    }
+
+    /**
+     * Writes the first {@code length} elements of a primitive array big-endian.
+     *
+     * @param array a {@code byte[]}, {@code short[]}, {@code int[]}, {@code long[]}, {@code float[]} or
+     *            {@code double[]}
+     * @param out receives the elements, starting at its position, which is not changed
+     * @param length the number of elements
+     */
+    public static void toBytes(final Object array, final ByteBuffer out, final int length) {
+        final ByteBuffer bytes = out.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (array instanceof byte[]) {
+            bytes.put((byte[])array, 0, length);
+        } else if (array instanceof short[]) {
+            bytes.asShortBuffer().put((short[])array, 0, length);
+        } else if (array instanceof int[]) {
+            bytes.asIntBuffer().put((int[])array, 0, length);
+        } else if (array instanceof long[]) {
+            bytes.asLongBuffer().put((long[])array, 0, length);
+        } else if (array instanceof float[]) {
+            bytes.asFloatBuffer().put((float[])array, 0, length);
+        } else if (array instanceof double[]) {
+            bytes.asDoubleBuffer().put((double[])array, 0, length);
+        } else {
+            throw new IllegalArgumentException("Unsupported array " + array.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Reads the first {@code length} elements of a primitive array from big-endian bytes.
+     *
+     * @param in the elements, starting at its position, which is not changed
+     * @param array a {@code byte[]}, {@code short[]}, {@code int[]}, {@code long[]}, {@code float[]} or
+     *            {@code double[]}
+     * @param length the number of elements
+     */
+    public static void fromBytes(final ByteBuffer in, final Object array, final int length) {
+        final ByteBuffer bytes = in.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (array instanceof byte[]) {
+            bytes.get((byte[])array, 0, length);
+        } else if (array instanceof short[]) {
+            bytes.asShortBuffer().get((short[])array, 0, length);
+        } else if (array instanceof int[]) {
+            bytes.asIntBuffer().get((int[])array, 0, length);
+        } else if (array instanceof long[]) {
+            bytes.asLongBuffer().get((long[])array, 0, length);
+        } else if (array instanceof float[]) {
+            bytes.asFloatBuffer().get((float[])array, 0, length);
+        } else if (array instanceof double[]) {
+            bytes.asDoubleBuffer().get((double[])array, 0, length);
+        } else {
+            throw new IllegalArgumentException("Unsupported array " + array.getClass().getSimpleName());
+        }
+    }
+}
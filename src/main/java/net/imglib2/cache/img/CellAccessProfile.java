@@ -0,0 +1,196 @@
+package net.imglib2.cache.img;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Intervals;
+
+/**
+ * Counts the events of a {@link N5CellCache} per cell, such that hot regions
+ * of an image can be found, e.g. to tune the cell dimensions or prefetching.
+ * The counts are exported by {@link #export(N5Writer, String)} as one N5
+ * dataset per {@link Counter} over the cell grid, which can be shown next to
+ * the image, e.g. in BigDataViewer, scaled by the cell dimensions.
+ * <p>
+ * A profile is kept if {@link N5CachedCellImgOptions#accessProfile(boolean)}
+ * is set, and obtained with {@link N5CellCache#accessProfile()}. Like the
+ * {@link N5CellCacheStatistics}, it only sees the misses of the in-memory
+ * cache.
+ * </p>
+ */
+public class CellAccessProfile {
+
+    /**
+     * The events counted per cell.
+     */
+    public enum Counter {
+        /**
+         * Misses of the in-memory cache, i.e. requests of the cell from the
+         * {@link N5CellCache}. Hits of the in-memory cache are not counted, as
+         * they do not reach it.
+         */
+        MISSES("misses"),
+
+        /**
+         * Requests served by the off-heap tier.
+         */
+        OFF_HEAP_HITS("offHeapHits"),
+
+        /**
+         * Reads of the block of the cell from N5.
+         */
+        N5_READS("n5Reads"),
+
+        /**
+         * Computations of the cell by the backing loader.
+         */
+        COMPUTATIONS("computations"),
+
+        /**
+         * Removals of the cell from the in-memory cache.
+         */
+        EVICTIONS("evictions");
+
+        private final String m_datasetName;
+
+        Counter(final String datasetName) {
+            m_datasetName = datasetName;
+        }
+
+        /**
+         * @return the name of the dataset of the counts within the exported group
+         */
+        public String datasetName() {
+            return m_datasetName;
+        }
+    }
+
+    /** The attribute of the exported group holding the cell dimensions of the image. */
+    public static final String CELL_DIMENSIONS_ATTRIBUTE = "cellDimensions";
+
+    // the largest edge of the blocks of the exported datasets
+    private static final int EXPORT_BLOCK_SIZE = 64;
+
+    // replaced when the image is appended to
+    private volatile CellGrid m_grid;
+
+    private volatile AtomicLongArray[] m_counts = new AtomicLongArray[Counter.values().length];
+
+    /**
+     * @param grid the cell grid of the profiled image
+     */
+    public CellAccessProfile(final CellGrid grid) {
+        final int numCells = numCells(grid);
+        m_grid = grid;
+        for (int i = 0; i < m_counts.length; ++i) {
+            m_counts[i] = new AtomicLongArray(numCells);
+        }
+    }
+
+    /**
+     * Extends the profile to a grid that grew along its last dimension, keeping
+     * the counts of the existing cells. Must not be called while events are
+     * counted.
+     */
+    void grow(final CellGrid grid) {
+        final int numCells = numCells(grid);
+        final AtomicLongArray[] counts = new AtomicLongArray[m_counts.length];
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = new AtomicLongArray(numCells);
+            for (int key = 0; key < m_counts[i].length(); ++key) {
+                counts[i].set(key, m_counts[i].get(key));
+            }
+        }
+        m_counts = counts;
+        m_grid = grid;
+    }
+
+    private static int numCells(final CellGrid grid) {
+        final long numCells = Intervals.numElements(grid.getGridDimensions());
+        if (numCells > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many cells to profile: " + numCells);
+        }
+        return (int) numCells;
+    }
+
+    void count(final Counter counter, final long key) {
+        m_counts[counter.ordinal()].incrementAndGet((int) key);
+    }
+
+    /**
+     * @param counter the event
+     * @param key the cell index
+     * @return the number of events of the cell
+     */
+    public long get(final Counter counter, final long key) {
+        return m_counts[counter.ordinal()].get((int) key);
+    }
+
+    /**
+     * @param counter the event
+     * @return the number of events of all cells
+     */
+    public long total(final Counter counter) {
+        final AtomicLongArray counts = m_counts[counter.ordinal()];
+        long total = 0;
+        for (int i = 0; i < counts.length(); ++i) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Sets all counts to zero, e.g. to profile a single interaction.
+     */
+    public void reset() {
+        for (final AtomicLongArray counts : m_counts) {
+            for (int i = 0; i < counts.length(); ++i) {
+                counts.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * Writes the current counts as {@code uint64} datasets with the dimensions
+     * of the cell grid, named by {@link Counter#datasetName()}, to a group.
+     * Existing datasets are overwritten. The group gets the cell dimensions of
+     * the image as {@link #CELL_DIMENSIONS_ATTRIBUTE}, and each dataset gets
+     * them as {@code downsamplingFactors}, such that viewers place a count
+     * over its cell.
+     *
+     * @param writer the N5 container
+     * @param group the group of the datasets
+     * @throws IOException if writing fails
+     */
+    public void export(final N5Writer writer, final String group) throws IOException {
+        final long[] gridDims = m_grid.getGridDimensions();
+        final int[] blockSize = new int[gridDims.length];
+        final long[] cellDims = new long[gridDims.length];
+        for (int d = 0; d < gridDims.length; ++d) {
+            blockSize[d] = (int) Math.min(gridDims[d], EXPORT_BLOCK_SIZE);
+            cellDims[d] = m_grid.cellDimension(d);
+        }
+        writer.createGroup(group);
+        writer.setAttribute(group, CELL_DIMENSIONS_ATTRIBUTE, cellDims);
+        writer.setAttribute(group, "downsamplingFactors", cellDims);
+        for (final Counter counter : Counter.values()) {
+            final AtomicLongArray counts = m_counts[counter.ordinal()];
+            final long[] snapshot = new long[counts.length()];
+            for (int i = 0; i < snapshot.length; ++i) {
+                snapshot[i] = counts.get(i);
+            }
+            // the cell index is the flat index of the grid position, as in an array image
+            final String dataset = group + "/" + counter.datasetName();
+            N5Utils.save(ArrayImgs.unsignedLongs(snapshot, gridDims), writer, dataset, blockSize,
+                new GzipCompression());
+            // viewers read the scale of a dataset from its own attributes
+            writer.setAttribute(dataset, "downsamplingFactors", cellDims);
+        }
+    }
+}
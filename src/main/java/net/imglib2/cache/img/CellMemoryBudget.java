@@ -0,0 +1,154 @@
+package net.imglib2.cache.img;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A budget in bytes for the off-heap tiers of several {@link N5CachedCellImg}s,
+ * e.g. of all images of a process. Each image accounts for the actual size of
+ * its serialized cells. When the total exceeds the budget, the least recently
+ * used cells across all images are evicted and written to N5 by the image
+ * they belong to.
+ * <p>
+ * Images use the budget when it is passed to
+ * {@link N5CachedCellImgOptions#memoryBudget(CellMemoryBudget)}, and return
+ * their share when they are closed with {@link N5CachedCellImg#close()}.
+ * </p>
+ * <p>
+ * The cells in the in-memory caches of the images are not covered: they live
+ * on the heap and are bounded per image by
+ * {@link N5CachedCellImgOptions#maxCacheSize(long)} or
+ * {@link N5CachedCellImgOptions#maxCacheBytes(long)}. An image that sets
+ * {@code maxCacheBytes} {@link #reserve(long) reserves} that many bytes when it
+ * is created, which shrinks the share of the off-heap tiers, and creating it
+ * fails if the budget can not cover the reservation. The heap cells of images
+ * without {@code maxCacheBytes} are not accounted at all.
+ * </p>
+ */
+public class CellMemoryBudget {
+
+    private final long m_capacity;
+
+    private final AtomicLong m_usedBytes = new AtomicLong();
+
+    // the bytes reserved for the in-memory caches, written while holding the lock
+    private final AtomicLong m_reservedBytes = new AtomicLong();
+
+    // orders the accesses of cells across all stores
+    private final AtomicLong m_clock = new AtomicLong();
+
+    private final Set<OffHeapCellStore<?>> m_stores = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param capacity the maximum number of bytes held by the cells of all images using this budget
+     */
+    public CellMemoryBudget(final long capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The memory budget must be positive");
+        }
+        m_capacity = capacity;
+    }
+
+    /**
+     * @return the maximum number of bytes held by the cells of all images using this budget
+     */
+    public long capacity() {
+        return m_capacity;
+    }
+
+    /**
+     * @return the number of bytes currently held by the cells of all images using this budget
+     */
+    public long usedBytes() {
+        return m_usedBytes.get();
+    }
+
+    /**
+     * @return the number of bytes reserved for the in-memory caches of the images using this budget
+     */
+    public long reservedBytes() {
+        return m_reservedBytes.get();
+    }
+
+    /**
+     * Reserves bytes of this budget, e.g. for the in-memory cache of an image, such that they are no longer available
+     * to the off-heap tiers. Cells of the off-heap tiers are evicted if they exceed the remaining budget.
+     *
+     * @param bytes the number of bytes to reserve
+     * @throws IllegalArgumentException if the bytes exceed the part of the budget that is not reserved yet
+     */
+    public void reserve(final long bytes) {
+        synchronized (this) {
+            final long unreserved = m_capacity - m_reservedBytes.get();
+            if (bytes > unreserved) {
+                throw new IllegalArgumentException("Can not reserve " + bytes + " bytes, only " + unreserved
+                        + " bytes of the memory budget are not reserved");
+            }
+            m_reservedBytes.addAndGet(bytes);
+        }
+        enforce();
+    }
+
+    /**
+     * Returns bytes reserved by {@link #reserve(long)}.
+     *
+     * @param bytes the number of bytes to return
+     */
+    public synchronized void release(final long bytes) {
+        m_reservedBytes.addAndGet(-bytes);
+    }
+
+    void register(final OffHeapCellStore<?> store) {
+        m_stores.add(store);
+    }
+
+    void unregister(final OffHeapCellStore<?> store) {
+        m_stores.remove(store);
+    }
+
+    long tick() {
+        return m_clock.incrementAndGet();
+    }
+
+    void adjust(final long deltaBytes) {
+        m_usedBytes.addAndGet(deltaBytes);
+    }
+
+    /**
+     * Evicts the least recently used cells of all stores until the budget is kept. Must not be called while holding
+     * the lock of a store.
+     */
+    void enforce() {
+        if (m_usedBytes.get() <= m_capacity - m_reservedBytes.get()) {
+            return;
+        }
+        final List<Runnable> handOvers = new ArrayList<>();
+        synchronized (this) {
+            while (m_usedBytes.get() > m_capacity - m_reservedBytes.get()) {
+                OffHeapCellStore<?> oldest = null;
+                long oldestStamp = Long.MAX_VALUE;
+                for (final OffHeapCellStore<?> store : m_stores) {
+                    final long stamp = store.eldestStamp();
+                    if (stamp < oldestStamp) {
+                        oldest = store;
+                        oldestStamp = stamp;
+                    }
+                }
+                if (oldest == null) {
+                    // all stores are empty
+                    break;
+                }
+                final OffHeapCellStore<?> store = oldest;
+                final OffHeapCellStore.Entry victim = store.evictEldest();
+                if (victim != null) {
+                    handOvers.add(() -> store.handOver(victim));
+                }
+            }
+        }
+        // victims are written without holding the lock of the budget
+        handOvers.forEach(Runnable::run);
+    }
+}
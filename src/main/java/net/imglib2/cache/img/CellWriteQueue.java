@@ -0,0 +1,206 @@
+package net.imglib2.cache.img;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.imglib2.Dirty;
+import net.imglib2.img.cell.Cell;
+
+/**
+ * The write pipeline of a {@link N5CellCache}: writes serialized cells through a {@link Store}, asynchronously on a
+ * {@link BlockIoExecutor} if there is one, or else by the calling thread. Writes of the same cell run in the order in
+ * which they were issued, such that an older version never overwrites a newer one, and a cell can be loaded from its
+ * serialized data until its write has finished.
+ *
+ * @param <A> access type
+ */
+final class CellWriteQueue<A> {
+
+    /**
+     * Writes the serialized data of a cell.
+     */
+    interface Store {
+
+        /**
+         * @param key the cell index
+         * @param min the minimum of the cell
+         * @param dims the dimensions of the cell
+         * @param data the serialized entities of the cell
+         * @throws IOException if the write fails
+         */
+        void store(long key, long[] min, int[] dims, ByteBuffer data) throws IOException;
+    }
+
+    // runs the writes asynchronously, or null if they are done by the calling threads
+    private final BlockIoExecutor m_io;
+
+    private final BulkAccessIo<A> m_bulkIo;
+
+    private final Store m_store;
+
+    // the last write of each cell that has not finished yet, a later write of the cell runs after it
+    private final ConcurrentHashMap<Long, PendingWrite> m_pendingWrites = new ConcurrentHashMap<>();
+
+    // first failure of an asynchronous write that has not been reported yet
+    private final AtomicReference<Exception> m_writeFailure = new AtomicReference<>();
+
+    /**
+     * @param io runs the writes asynchronously, or {@code null} if they are done by the calling threads
+     * @param bulkIo loads the cells that are being written
+     * @param store writes a cell
+     */
+    CellWriteQueue(final BlockIoExecutor io, final BulkAccessIo<A> bulkIo, final Store store) {
+        m_io = io;
+        m_bulkIo = bulkIo;
+        m_store = store;
+    }
+
+    /**
+     * Writes a cell after all writes of the same cell that were issued before. Until the write has finished, the cell
+     * is loaded from its serialized data by {@link #pending(long)}.
+     *
+     * @param key the cell index
+     * @param min the minimum of the cell
+     * @param dims the dimensions of the cell
+     * @param data the serialized entities of the cell, which must not be modified anymore
+     * @param numEntities the number of entities of the cell
+     * @throws IllegalStateException if the write is done by the calling thread and fails
+     */
+    void write(final long key, final long[] min, final int[] dims, final ByteBuffer data, final int numEntities) {
+        final PendingWrite pending = new PendingWrite(min, dims, data, numEntities);
+        final PendingWrite previous = m_pendingWrites.put(key, pending);
+        final Callable<Void> store = () -> {
+            try {
+                m_store.store(key, min, dims, data);
+            } finally {
+                // a later write of the cell stays pending
+                m_pendingWrites.remove(key, pending);
+                pending.m_done.complete(null);
+            }
+            return null;
+        };
+        if (previous == null) {
+            submit(store);
+        } else if (m_io == null) {
+            // the previous write runs in another thread, m_done completes normally even if it failed
+            previous.m_done.join();
+            submit(store);
+        } else {
+            // submitted by the previous write before it finishes, hence it is awaited by flush()
+            previous.m_done.thenRun(() -> submit(store));
+        }
+    }
+
+    /**
+     * @param key the cell index
+     * @return a new cell holding the data of the last write of the cell, marked dirty like a cell from the off-heap
+     *         tier that is not persisted yet, or {@code null} if the cell is not being written
+     */
+    Cell<A> pending(final long key) {
+        final PendingWrite pending = m_pendingWrites.get(key);
+        return pending == null ? null : pending.copy();
+    }
+
+    /**
+     * @param key the cell index
+     * @return whether the cell is being written
+     */
+    boolean isPending(final long key) {
+        return m_pendingWrites.containsKey(key);
+    }
+
+    /**
+     * Waits until all writes issued so far have finished and reports the first failure of an asynchronous write.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if an asynchronous write failed
+     */
+    void flush() throws InterruptedException {
+        if (m_io != null) {
+            // writes of a cell that wait for an earlier write of it are only submitted once that one finished
+            final List<PendingWrite> pending = new ArrayList<>(m_pendingWrites.values());
+            m_io.awaitWrites();
+            for (final PendingWrite write : pending) {
+                try {
+                    write.m_done.get();
+                } catch (final ExecutionException e) {
+                    // not thrown, m_done completes normally even if the write failed
+                }
+            }
+        }
+        reportFailure();
+    }
+
+    /**
+     * Asynchronous writes can not throw to their caller, so their failures are thrown by the next call of this method
+     * instead, e.g. on the next removal from the in-memory cache.
+     *
+     * @throws IllegalStateException if an asynchronous write failed since the last call
+     */
+    void reportFailure() {
+        final Exception failure = m_writeFailure.getAndSet(null);
+        if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+    }
+
+    private void submit(final Callable<Void> write) {
+        if (m_io == null) {
+            try {
+                write.call();
+            } catch (final Exception e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            m_io.submitWrite(() -> {
+                try {
+                    return write.call();
+                } catch (final Exception e) {
+                    m_writeFailure.compareAndSet(null, e);
+                    throw e;
+                }
+            });
+        }
+    }
+
+    /**
+     * The serialized data of a cell that is being written.
+     */
+    private final class PendingWrite {
+
+        private final long[] m_min;
+
+        private final int[] m_dims;
+
+        private final ByteBuffer m_data;
+
+        private final int m_numEntities;
+
+        // completed when the write has finished or failed
+        private final CompletableFuture<Void> m_done = new CompletableFuture<>();
+
+        PendingWrite(final long[] min, final int[] dims, final ByteBuffer data, final int numEntities) {
+            m_min = min;
+            m_dims = dims;
+            m_data = data;
+            m_numEntities = numEntities;
+        }
+
+        Cell<A> copy() {
+            final ByteBuffer data = m_data.duplicate();
+            data.clear();
+            final A access = m_bulkIo.load(data, m_numEntities);
+            if (access instanceof Dirty) {
+                ((Dirty) access).setDirty();
+            }
+            return new Cell<>(m_dims, m_min, access);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package net.imglib2.cache.img;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link BlockCodec} compressing a block as independent sub-chunks, such
+ * that a single large block is compressed and decompressed on several cores
+ * in parallel. Sub-chunks are compressed with {@link Deflater} and processed
+ * on the common fork-join pool.
+ * <p>
+ * The encoded block starts with the number of uncompressed bytes, the
+ * uncompressed size of a sub-chunk, the number of sub-chunks and the
+ * compressed size of each sub-chunk, all as {@code int}s, followed by the
+ * compressed sub-chunks.
+ * </p>
+ */
+public class ChunkedDeflateCodec implements BlockCodec {
+
+    private final int m_chunkSize;
+
+    private final int m_level;
+
+    /**
+     * @param chunkSize the number of uncompressed bytes of a sub-chunk
+     * @param level the {@link Deflater} compression level
+     */
+    public ChunkedDeflateCodec(final int chunkSize, final int level) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The size of a sub-chunk must be positive");
+        }
+        m_chunkSize = chunkSize;
+        m_level = level;
+    }
+
+    @Override
+    public String name() {
+        // the level does not matter for decoding
+        return "deflate-chunks" + m_chunkSize;
+    }
+
+    @Override
+    public ByteBuffer encode(final ByteBuffer data, final int numEntities) {
+        final byte[] in = ShuffleCodec.toArray(data);
+        final int numChunks = (in.length + m_chunkSize - 1) / m_chunkSize;
+        final byte[][] chunks = new byte[numChunks][];
+        IntStream.range(0, numChunks).parallel().forEach(c -> {
+            final int offset = c * m_chunkSize;
+            chunks[c] = deflate(in, offset, Math.min(m_chunkSize, in.length - offset));
+        });
+
+        int size = (3 + numChunks) * Integer.BYTES;
+        for (final byte[] chunk : chunks) {
+            size += chunk.length;
+        }
+        final ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(in.length);
+        out.putInt(m_chunkSize);
+        out.putInt(numChunks);
+        for (final byte[] chunk : chunks) {
+            out.putInt(chunk.length);
+        }
+        for (final byte[] chunk : chunks) {
+            out.put(chunk);
+        }
+        out.flip();
+        return out;
+    }
+
+    @Override
+    public ByteBuffer decode(final ByteBuffer data, final int numEntities) {
+        final ByteBuffer header = data.slice();
+        final int length = header.getInt();
+        final int chunkSize = header.getInt();
+        final int numChunks = header.getInt();
+        final int[] offsets = new int[numChunks + 1];
+        offsets[0] = (3 + numChunks) * Integer.BYTES;
+        for (int c = 0; c < numChunks; ++c) {
+            offsets[c + 1] = offsets[c] + header.getInt();
+        }
+
+        final byte[] in = ShuffleCodec.toArray(data);
+        final byte[] out = new byte[length];
+        IntStream.range(0, numChunks).parallel().forEach(c -> {
+            final int offset = c * chunkSize;
+            inflate(in, offsets[c], offsets[c + 1] - offsets[c], out, offset, Math.min(chunkSize, length - offset));
+        });
+        return ByteBuffer.wrap(out);
+    }
+
+    private byte[] deflate(final byte[] in, final int offset, final int length) {
+        final Deflater deflater = new Deflater(m_level);
+        try {
+            deflater.setInput(in, offset, length);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            final byte[] buffer = new byte[Math.max(64, Math.min(length, 64 * 1024))];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void inflate(final byte[] in, final int inOffset, final int inLength, final byte[] out,
+            final int outOffset, final int outLength) {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(in, inOffset, inLength);
+            int inflated = 0;
+            while (inflated < outLength) {
+                final int n = inflater.inflate(out, outOffset + inflated, outLength - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Sub-chunk of an encoded block is truncated");
+                }
+                inflated += n;
+            }
+        } catch (final DataFormatException e) {
+            throw new IllegalStateException("Sub-chunk of an encoded block is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
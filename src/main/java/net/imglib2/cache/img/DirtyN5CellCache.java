@@ -39,11 +39,26 @@ public class DirtyN5CellCache<T extends NativeType<T>, A extends Dirty & ArrayDa
         {
             super( resultCacheLocation, datasetName, grid, backingLoader, entitiesPerPixel, accessIo, compression, type );
         }
-    
+
+        public DirtyN5CellCache(
+                final Path resultCacheLocation,
+                final CellGrid grid,
+                final CacheLoader<Long, Cell<A>> backingLoader,
+                final Fraction entitiesPerPixel,
+                final AccessIo<A> accessIo,
+                final T type,
+                final N5CachedCellImgOptions.Values options) throws IOException
+        {
+            super( resultCacheLocation, grid, backingLoader, entitiesPerPixel, accessIo, type, options );
+        }
+
+        /**
+         * Only dirty cells are written, but they are written again whenever they
+         * were modified after they have been loaded from N5.
+         */
         @Override
-        public void onRemoval( final Long key, final Cell< A > value )
+        protected boolean needsWrite( final Long key, final Cell< A > value )
         {
-            if ( value.getData().isDirty() )
-                super.onRemoval( key, value );
+            return value.getData().isDirty();
         }
 }
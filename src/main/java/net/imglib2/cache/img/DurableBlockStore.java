@@ -0,0 +1,275 @@
+package net.imglib2.cache.img;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockWriter;
+
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Writes the blocks of a local N5 dataset such that they survive a crash of
+ * the process or the machine, see
+ * {@link N5CachedCellImgOptions.Durability#DURABLE}.
+ * <p>
+ * A block is written to a temporary file next to it, which is synced and then
+ * atomically renamed, hence a block is either complete or absent. Renames are
+ * committed in groups: the thread that finds no commit running publishes all
+ * blocks written meanwhile, syncs each affected directory once and appends
+ * their cell indices to a manifest, which is synced once per group. The
+ * manifest hence only lists blocks that are complete on disk, and is read
+ * instead of listing the dataset when the cache is opened again. Deleted
+ * blocks are recorded as {@code -index - 1}.
+ * </p>
+ */
+public class DurableBlockStore implements Closeable {
+
+    /**
+     * The suffix of the manifest file, which is stored next to the dataset directory.
+     */
+    public static final String MANIFEST_SUFFIX = ".manifest";
+
+    private final Path m_blockRoot;
+
+    private final long[] m_gridDimensions;
+
+    private final FileChannel m_log;
+
+    // distinguishes the temporary files of concurrent writes of the same block
+    private final AtomicLong m_tempFiles = new AtomicLong();
+
+    private final List<Commit> m_pending = new ArrayList<>();
+
+    private boolean m_committing = false;
+
+    /**
+     * Replaces the manifest by one listing the given cells, and opens it for appending.
+     *
+     * @param blockRoot the directory of the dataset
+     * @param manifest the manifest file
+     * @param gridDimensions the dimensions of the cell grid
+     * @param present the indices of the cells whose blocks are present
+     * @throws IOException if writing the manifest fails
+     */
+    public DurableBlockStore(final Path blockRoot, final Path manifest, final long[] gridDimensions,
+        final Collection<Long> present) throws IOException {
+        m_blockRoot = blockRoot;
+        m_gridDimensions = gridDimensions;
+
+        // compact the manifest, records of deleted or rewritten blocks are dropped
+        final ByteBuffer records = ByteBuffer.allocate(present.size() * Long.BYTES);
+        present.forEach(records::putLong);
+        records.flip();
+        final Path temp = temporary(manifest);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, manifest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory(manifest.toAbsolutePath().getParent());
+        m_log = FileChannel.open(manifest, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Reads the cells listed by a manifest. An incomplete record at the end, left by a crash while appending, is
+     * ignored.
+     *
+     * @param manifest the manifest file
+     * @return the indices of the cells whose blocks are present, or {@code null} if there is no manifest
+     * @throws IOException if reading the manifest fails
+     */
+    public static Set<Long> readManifest(final Path manifest) throws IOException {
+        if (!Files.exists(manifest)) {
+            return null;
+        }
+        final ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(manifest));
+        final Set<Long> present = new HashSet<>();
+        while (records.remaining() >= Long.BYTES) {
+            final long record = records.getLong();
+            if (record >= 0) {
+                present.add(record);
+            } else {
+                present.remove(-record - 1);
+            }
+        }
+        return present;
+    }
+
+    /**
+     * Writes a block and returns once it is committed.
+     *
+     * @param attributes the attributes of the dataset
+     * @param block the block
+     * @throws IOException if writing or committing the block fails
+     */
+    public void write(final DatasetAttributes attributes, final DataBlock<?> block) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DefaultBlockWriter.writeBlock(bytes, attributes, block);
+
+        final Path target = blockPath(block.getGridPosition());
+        Files.createDirectories(target.getParent());
+        final Path temp = temporary(target);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            // the data is synced by the writing threads in parallel, the rename by the committing one
+            channel.force(false);
+        }
+        commit(new Commit(temp, target, IntervalIndexer.positionToIndex(block.getGridPosition(), m_gridDimensions)));
+    }
+
+    /**
+     * Deletes the block of a cell. The deletion is committed to the manifest
+     * before the file is deleted: after a crash in between, the manifest does
+     * not list the stale block, which is hence never read and is overwritten
+     * by the next write of the cell.
+     *
+     * @param key the cell index
+     * @throws IOException if committing the deletion or deleting the block fails
+     */
+    public void delete(final long key) throws IOException {
+        final long[] gridPosition = new long[m_gridDimensions.length];
+        IntervalIndexer.indexToPosition(key, m_gridDimensions, gridPosition);
+        final Path block = blockPath(gridPosition);
+        commit(new Commit(null, block, -key - 1));
+        Files.deleteIfExists(block);
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_log.close();
+    }
+
+    private Path blockPath(final long[] gridPosition) {
+        Path block = m_blockRoot;
+        for (final long p : gridPosition) {
+            block = block.resolve(Long.toString(p));
+        }
+        return block;
+    }
+
+    // hidden, such that the presence of blocks can be probed while temporary files are around
+    private Path temporary(final Path file) {
+        return file.resolveSibling("." + file.getFileName() + "." + m_tempFiles.incrementAndGet() + ".tmp");
+    }
+
+    private void commit(final Commit commit) throws IOException {
+        final List<Commit> group;
+        synchronized (this) {
+            m_pending.add(commit);
+            while (m_committing && !commit.m_done) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a block to be committed");
+                }
+            }
+            if (commit.m_done) {
+                // committed by another thread
+                if (commit.m_failure != null) {
+                    throw new IOException("Committing the group of a block failed", commit.m_failure);
+                }
+                return;
+            }
+            m_committing = true;
+            group = new ArrayList<>(m_pending);
+            m_pending.clear();
+        }
+
+        IOException failure = null;
+        try {
+            publish(group);
+        } catch (final IOException e) {
+            failure = e;
+        }
+        synchronized (this) {
+            for (final Commit c : group) {
+                c.m_failure = failure;
+                c.m_done = true;
+            }
+            m_committing = false;
+            notifyAll();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void publish(final List<Commit> group) throws IOException {
+        final Set<Path> directories = new LinkedHashSet<>();
+        final ByteBuffer records = ByteBuffer.allocate(group.size() * Long.BYTES);
+        for (final Commit commit : group) {
+            if (commit.m_temp != null) {
+                Files.move(commit.m_temp, commit.m_target, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+            // directories created for the block need to be synced as well
+            for (Path dir = commit.m_target.getParent(); dir != null && dir.startsWith(m_blockRoot); dir =
+                dir.getParent()) {
+                directories.add(dir);
+            }
+            records.putLong(commit.m_record);
+        }
+        for (final Path directory : directories) {
+            forceDirectory(directory);
+        }
+        // the manifest only lists blocks whose rename is durable
+        records.flip();
+        while (records.hasRemaining()) {
+            m_log.write(records);
+        }
+        m_log.force(false);
+    }
+
+    private static void forceDirectory(final Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (final IOException e) {
+            // directories can not be opened on every platform, e.g. on Windows, where renames are durable anyway
+        }
+    }
+
+    private static final class Commit {
+
+        // the written temporary file, or null if the block was deleted
+        private final Path m_temp;
+
+        private final Path m_target;
+
+        private final long m_record;
+
+        private boolean m_done = false;
+
+        private IOException m_failure;
+
+        Commit(final Path temp, final Path target, final long record) {
+            m_temp = temp;
+            m_target = target;
+            m_record = record;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package net.imglib2.cache.img;
+
+/**
+ * Approximates how often cells were requested recently, for the TinyLFU
+ * admission policy of an {@link OffHeapCellStore}.
+ * <p>
+ * A count-min sketch of 4-bit counters, four per cell index. All counters are
+ * halved after a number of increments proportional to the size of the sketch,
+ * such that past popularity fades. Not thread-safe.
+ * </p>
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+        0xcbf29ce484222325L };
+
+    private static final long ODD_COUNTERS = 0x7777777777777777L;
+
+    // 16 counters per long
+    private final long[] m_table;
+
+    private final int m_counterMask;
+
+    private final int m_sampleSize;
+
+    private int m_increments = 0;
+
+    /**
+     * @param expectedEntries the number of cells that fit into the store
+     */
+    public FrequencySketch(final int expectedEntries) {
+        final int length = Integer.highestOneBit(Math.max(16, Math.min(expectedEntries, 1 << 20)) - 1) << 1;
+        m_table = new long[length];
+        m_counterMask = length * 16 - 1;
+        m_sampleSize = 10 * length;
+    }
+
+    /**
+     * @param key the cell index
+     * @return the estimated number of recent requests of the cell, at most 15
+     */
+    public int frequency(final long key) {
+        int frequency = 15;
+        for (int i = 0; i < SEEDS.length; ++i) {
+            final int counter = counter(key, i);
+            frequency = Math.min(frequency, (int) (m_table[counter >>> 4] >>> ((counter & 15) << 2) & 15));
+        }
+        return frequency;
+    }
+
+    /**
+     * Records a request of a cell.
+     *
+     * @param key the cell index
+     */
+    public void increment(final long key) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; ++i) {
+            final int counter = counter(key, i);
+            final int shift = (counter & 15) << 2;
+            if ((m_table[counter >>> 4] >>> shift & 15) < 15) {
+                m_table[counter >>> 4] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++m_increments == m_sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < m_table.length; ++i) {
+            m_table[i] = m_table[i] >>> 1 & ODD_COUNTERS;
+        }
+        m_increments /= 2;
+    }
+
+    private int counter(final long key, final int i) {
+        long hash = (key + SEEDS[i]) * SEEDS[i];
+        hash ^= hash >>> 32;
+        hash *= 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ hash >>> 29) & m_counterMask;
+    }
+}
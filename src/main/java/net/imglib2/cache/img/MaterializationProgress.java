@@ -0,0 +1,18 @@
+package net.imglib2.cache.img;
+
+/**
+ * Receives the progress of {@link N5CachedCellImg#materialize(boolean,
+ * java.util.concurrent.ForkJoinPool, MaterializationProgress)}.
+ */
+@FunctionalInterface
+public interface MaterializationProgress {
+
+    /**
+     * Called after each cell that was written or skipped, possibly from
+     * several threads at once.
+     *
+     * @param done the number of cells done so far
+     * @param total the number of cells to materialize
+     */
+    void progress(long done, long total);
+}
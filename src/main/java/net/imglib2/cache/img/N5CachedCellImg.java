@@ -47,13 +47,34 @@
 
 package net.imglib2.cache.img;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.cache.Cache;
 import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
 import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.iterator.LocalizingIntervalIterator;
 import net.imglib2.type.NativeType;
 import net.imglib2.util.Fraction;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
 
 /**
  * A {@link LazyCellImg} that creates empty Cells lazily when they are accessed
@@ -69,14 +90,423 @@ import net.imglib2.util.Fraction;
 public class N5CachedCellImg<T extends NativeType<T>, A> extends CachedCellImg<T, A> {
     private final N5CachedCellImgFactory<T> factory;
 
+    private final Cache<Long, Cell<A>> cache;
+
+    // the N5 cell cache behind the in-memory cache, or null
+    private final N5CellCache<?, ?> cellCache;
+
+    // reloads the hot set of the previous session, or null
+    private Thread warmRestart;
+
+    // creates the image replacing this one when it is appended to, or null
+    private Function<long[], N5CachedCellImg<T, ?>> appender;
+
+    // whether this image was replaced by append(), which then owns the N5 cell cache
+    private boolean appended = false;
+
     public N5CachedCellImg(
             final N5CachedCellImgFactory<T> factory, 
             final CellGrid grid,
             final Fraction entitiesPerPixel, 
             final Cache<Long, Cell<A>> cache,
             final A accessType) {
+        this(factory, grid, entitiesPerPixel, cache, accessType, null);
+    }
+
+    public N5CachedCellImg(
+            final N5CachedCellImgFactory<T> factory,
+            final CellGrid grid,
+            final Fraction entitiesPerPixel,
+            final Cache<Long, Cell<A>> cache,
+            final A accessType,
+            final N5CellCache<?, ?> cellCache) {
         super(grid, entitiesPerPixel, cache, accessType);
         this.factory = factory;
+        this.cache = cache;
+        this.cellCache = cellCache;
+    }
+
+    /**
+     * Gets all cells intersecting the given interval. Cells that are not in
+     * memory yet are read from N5 concurrently (or computed by the backing
+     * loader in parallel) before they are handed to the in-memory cache.
+     *
+     * @param interval the interval
+     * @return the intersecting cells, in flat iteration order of the cell grid
+     */
+    public List<Cell<A>> getIntersectingCells(final Interval interval) {
+        return getCellsByIndex(intersectingKeys(interval));
+    }
+
+    /**
+     * Passes all cells intersecting the given interval to {@code action}, in
+     * flat iteration order of the cell grid, without inserting them into the
+     * in-memory cache. This is meant for read-only scans over large parts of
+     * the image (statistics, export), which would otherwise evict the working
+     * set of interactive use. Cells that are in memory are passed as they are,
+     * all others are read from N5 (or computed) up to {@code readAhead} cells
+     * ahead and dropped after {@code action} returns.
+     *
+     * @param interval the interval
+     * @param readAhead the number of cells loaded ahead of the current cell
+     * @param action the action, must not modify the cells
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void forEachCell(final Interval interval, final int readAhead, final Consumer<? super Cell<A>> action) {
+        final List<Long> keys = intersectingKeys(interval);
+        try {
+            if (cellCache == null) {
+                for (final Long key : keys) {
+                    action.accept(cache.get(key));
+                }
+            } else {
+                ((N5CellCache) cellCache).stream(keys, readAhead, (Function<Long, Cell<A>>) cache::getIfPresent,
+                        action);
+            }
+        } catch (final ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Computes all cells of this image, or all cells that are not present in
+     * N5 yet, and writes them to N5 in parallel without inserting them into
+     * the in-memory cache. Cells that are in memory are written as they are.
+     * Materializing only the missing cells resumes a materialization that was
+     * interrupted.
+     *
+     * @param missingOnly whether cells that are present in N5 are skipped
+     * @param pool the pool computing and writing the cells
+     * @param progress receives the number of cells done, or {@code null}
+     * @return the number of cells written
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public long materialize(final boolean missingOnly, final ForkJoinPool pool, final MaterializationProgress progress) {
+        if (cellCache == null) {
+            throw new IllegalStateException("The image is not backed by an N5 cell cache");
+        }
+        try {
+            return ((N5CellCache) cellCache).materialize(intersectingKeys(this), missingOnly,
+                    (Function<Long, Cell<A>>) cache::getIfPresent, pool, progress);
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Materializes all cells that are not present in N5 yet on the common
+     * {@link ForkJoinPool}, see
+     * {@link #materialize(boolean, ForkJoinPool, MaterializationProgress)}.
+     *
+     * @return the number of cells written
+     */
+    public long materialize() {
+        return materialize(true, ForkJoinPool.commonPool(), null);
+    }
+
+    /**
+     * Invalidates all cells intersecting the given interval, such that they
+     * are computed again by the backing loader, e.g. after an input of the
+     * computation changed for this region. The blocks of the cells are deleted
+     * from N5, and cells that are in memory are recomputed right away. The
+     * region must not be accessed meanwhile.
+     *
+     * @param interval the interval
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void invalidate(final Interval interval) {
+        if (cellCache == null) {
+            throw new IllegalStateException("The image is not backed by an N5 cell cache");
+        }
+        try {
+            ((N5CellCache) cellCache).invalidate(intersectingKeys(interval),
+                    (Function<Long, Cell<A>>) cache::getIfPresent);
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Copies a cell and a halo around it into a new contiguous image, e.g. for
+     * filters or watershed processing the image cell by cell. The neighbor
+     * cells overlapping the halo are loaded from N5 in parallel without
+     * inserting them into the in-memory cache, cells that are in memory are
+     * used as they are. For types stored as whole entities per pixel, only the
+     * rows within the halo are copied from each cell.
+     * <p>
+     * The halo is clipped at the border of the image, i.e. the returned image
+     * is smaller for cells at the border. It is placed at the position of the
+     * region within this image.
+     * </p>
+     *
+     * @param cellIndex the index of the cell in the cell grid
+     * @param halo the width of the halo on either side of the cell, per dimension
+     * @return a copy of the cell with its halo, backed by an {@link ArrayImg}
+     */
+    public RandomAccessibleInterval<T> getCellWithHalo(final long cellIndex, final int... halo) {
+        final CellGrid grid = getCellGrid();
+        final int n = grid.numDimensions();
+        if (halo.length != n) {
+            throw new IllegalArgumentException("Expected a halo for each of the " + n + " dimensions");
+        }
+        final long[] min = new long[n];
+        final int[] cellDims = new int[n];
+        grid.getCellDimensions(cellIndex, min, cellDims);
+        final long[] max = new long[n];
+        for (int d = 0; d < n; ++d) {
+            max[d] = Math.min(dimension(d) - 1, min[d] + cellDims[d] - 1 + halo[d]);
+            min[d] = Math.max(0, min[d] - halo[d]);
+        }
+        final FinalInterval region = new FinalInterval(min, max);
+
+        final ArrayImg<T, ?> out = new ArrayImgFactory<>(factory.type()).create(region);
+        final Fraction entitiesPerPixel = getEntitiesPerPixel();
+        if (entitiesPerPixel.getDenominator() != 1 || !(out.update(null) instanceof ArrayDataAccess)) {
+            // pixels are not aligned to array elements, e.g. for BitType
+            final Cursor<T> target = Views.translate(out, min).localizingCursor();
+            final RandomAccess<T> source = randomAccess(region);
+            while (target.hasNext()) {
+                target.fwd();
+                source.setPosition(target);
+                target.get().set(source.get());
+            }
+            return Views.translate(out, min);
+        }
+
+        final Object target = ((ArrayDataAccess<?>) out.update(null)).getCurrentStorageArray();
+        final int entities = (int) entitiesPerPixel.getNumerator();
+        final long[] regionDims = Intervals.dimensionsAsLongArray(region);
+        forEachCell(region, intersectingKeys(region).size(), cell -> {
+            final Object data = cell.getData();
+            if (data instanceof SparseAccesses.Fill && ((SparseAccesses.Fill) data).isFill()) {
+                // an empty cell, the copy is zero already
+                return;
+            }
+            final Object source = ((ArrayDataAccess<?>) data).getCurrentStorageArray();
+            // copy the rows of the intersection along the first dimension
+            final long[] rowsMin = new long[n];
+            final long[] rowsMax = new long[n];
+            for (int d = 0; d < n; ++d) {
+                rowsMin[d] = Math.max(cell.min(d), min[d]);
+                rowsMax[d] = d == 0 ? rowsMin[d] : Math.min(cell.max(d), max[d]);
+            }
+            final int rowLength = (int) (Math.min(cell.max(0), max[0]) - rowsMin[0] + 1);
+            final long[] cellMin = new long[n];
+            final long[] cellSize = new long[n];
+            cell.min(cellMin);
+            cell.dimensions(cellSize);
+            final long[] position = new long[n];
+            final long[] inCell = new long[n];
+            final long[] inRegion = new long[n];
+            final LocalizingIntervalIterator rows = new LocalizingIntervalIterator(rowsMin, rowsMax);
+            while (rows.hasNext()) {
+                rows.fwd();
+                rows.localize(position);
+                for (int d = 0; d < n; ++d) {
+                    inCell[d] = position[d] - cellMin[d];
+                    inRegion[d] = position[d] - min[d];
+                }
+                System.arraycopy(source, (int) IntervalIndexer.positionToIndex(inCell, cellSize) * entities, target,
+                        (int) IntervalIndexer.positionToIndex(inRegion, regionDims) * entities, rowLength * entities);
+            }
+        });
+        return Views.translate(out, min);
+    }
+
+    private List<Long> intersectingKeys(final Interval interval) {
+        final CellGrid grid = getCellGrid();
+        final int n = grid.numDimensions();
+        final long[] gridDims = grid.getGridDimensions();
+        final long[] gridMin = new long[n];
+        final long[] gridMax = new long[n];
+        for (int d = 0; d < n; ++d) {
+            gridMin[d] = Math.max(0, Math.floorDiv(interval.min(d), grid.cellDimension(d)));
+            gridMax[d] = Math.min(gridDims[d] - 1, Math.floorDiv(interval.max(d), grid.cellDimension(d)));
+            if (gridMax[d] < gridMin[d]) {
+                return new ArrayList<>();
+            }
+        }
+
+        final List<Long> keys = new ArrayList<>();
+        final LocalizingIntervalIterator it = new LocalizingIntervalIterator(new FinalInterval(gridMin, gridMax));
+        final long[] gridPosition = new long[n];
+        while (it.hasNext()) {
+            it.fwd();
+            it.localize(gridPosition);
+            keys.add(IntervalIndexer.positionToIndex(gridPosition, gridDims));
+        }
+        return keys;
+    }
+
+    /**
+     * Gets the cells with the given indices through the in-memory cache,
+     * loading the cells that are not in memory yet as one batch.
+     *
+     * @param keys the cell indices
+     * @return the cells, in the order of {@code keys}
+     */
+    public List<Cell<A>> getCellsByIndex(final List<Long> keys) {
+        final List<Long> missing = new ArrayList<>();
+        for (final Long key : keys) {
+            if (cache.getIfPresent(key) == null) {
+                missing.add(key);
+            }
+        }
+
+        try {
+            if (cellCache != null && !missing.isEmpty()) {
+                cellCache.prefetch(missing);
+            }
+            final List<Cell<A>> cells = new ArrayList<>(keys.size());
+            for (final Long key : keys) {
+                cells.add(cache.get(key));
+            }
+            return cells;
+        } catch (final ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (cellCache != null) {
+                cellCache.releasePrefetched(missing);
+            }
+        }
+    }
+
+    /**
+     * Loads the given cells from N5 into the in-memory cache on a background
+     * thread of minimal priority, one cell at a time. The blocks are read as
+     * background reads of the I/O executor, which wait for all reads and
+     * writes that are requested on demand meanwhile. Cells are loaded in
+     * reverse order, such that the first cell ends up as the most recently
+     * used one. Cells that are in memory already or not present in N5 are
+     * skipped.
+     *
+     * @param hotSet the cell indices, most recently used first
+     */
+    synchronized void warmRestart(final long[] hotSet) {
+        warmRestart = new Thread(() -> {
+            for (int i = hotSet.length - 1; i >= 0 && !Thread.currentThread().isInterrupted(); --i) {
+                final long key = hotSet[i];
+                try {
+                    if (cellCache.isPresent(key) && cache.getIfPresent(key) == null) {
+                        cellCache.prefetchInBackground(key);
+                        cache.get(key);
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (final Exception e) {
+                    // the cell is loaded on demand instead
+                } finally {
+                    cellCache.releasePrefetched(Collections.singletonList(key));
+                }
+            }
+        }, "n5-cache-warm-restart");
+        warmRestart.setDaemon(true);
+        warmRestart.setPriority(Thread.MIN_PRIORITY);
+        warmRestart.start();
+    }
+
+    void setAppender(final Function<long[], N5CachedCellImg<T, ?>> appender) {
+        this.appender = appender;
+    }
+
+    /**
+     * Grows the last dimension of an
+     * {@link N5CachedCellImgOptions#appendable(boolean) appendable} image at
+     * runtime, e.g. by the time points of a streaming acquisition. The cells in
+     * memory are persisted, and an image of the new size is returned, which
+     * shares the N5 cell cache, its writer and its present cells with this one.
+     * No block is rewritten; cells at the former border are completed by the
+     * backing loader when they are read next.
+     * <p>
+     * This image must not be used anymore: its grid has the former size, and
+     * closing it does nothing. Close the returned image instead. The image
+     * must not be accessed while it is appended to.
+     * </p>
+     *
+     * @param size the new size of the last dimension, larger than the current one
+     * @return the grown image
+     * @throws IllegalStateException if the image is not backed by an N5 cell
+     *             cache, or was appended to already
+     * @throws IllegalArgumentException if the image is not appendable, or
+     *             {@code size} does not exceed the current size
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized N5CachedCellImg<T, A> append(final long size) {
+        if (appender == null) {
+            throw new IllegalStateException("The image is not backed by an N5 cell cache");
+        }
+        if (appended) {
+            throw new IllegalStateException("The image was appended to already");
+        }
+        final long[] dimensions = Intervals.dimensionsAsLongArray(this);
+        dimensions[dimensions.length - 1] = size;
+        stopWarmRestart();
+        // writes the cells that need to be, the cells of the grown image are loaded from N5 again
+        cache.persistAll();
+        final N5CachedCellImg<T, A> grown = (N5CachedCellImg<T, A>) appender.apply(dimensions);
+        appended = true;
+        return grown;
+    }
+
+    /**
+     * Finishes all pending block writes of the N5 cache. Cells that are still
+     * in memory are only written if
+     * {@link N5CachedCellImgOptions#warmRestart(boolean) warm restarts} are
+     * enabled, which also records them as the hot set of the dataset. An image
+     * that was replaced by {@link #append(long)} is not closed.
+     *
+     * @throws IOException if writing a block failed
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            stopWarmRestart();
+            if (appended) {
+                return;
+            }
+        }
+        if (cellCache != null) {
+            cellCache.close();
+        }
+    }
+
+    // must be called while holding the lock
+    private void stopWarmRestart() {
+        if (warmRestart != null) {
+            warmRestart.interrupt();
+            try {
+                warmRestart.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            warmRestart = null;
+        }
+    }
+
+    /**
+     * @return the in-memory cache of this image
+     */
+    public Cache<Long, Cell<A>> getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the N5 cell cache behind the in-memory cache, or {@code null} if this image was not created by a
+     *         {@link N5CachedCellImgFactory}
+     */
+    public N5CellCache<?, ?> getN5CellCache() {
+        return cellCache;
     }
 
     @Override
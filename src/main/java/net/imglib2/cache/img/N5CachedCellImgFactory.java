@@ -40,6 +40,7 @@ import java.nio.file.Path;
 import net.imglib2.Dimensions;
 import net.imglib2.cache.Cache;
 import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions.CacheType;
 import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
@@ -65,6 +66,10 @@ import net.imglib2.util.Util;
 public class N5CachedCellImgFactory<T extends NativeType<T>> extends AbstractReadWriteCachedCellImgFactory<T> {
     private N5CachedCellImgOptions factoryOptions;
 
+    // the create() call running on the current thread, whose state the base class does not pass between the methods
+    // it calls; only create() sets it, and restores the previous value before it returns
+    private final ThreadLocal<Creation> creation = new ThreadLocal<>();
+
     /**
      * Create a new {@link N5CachedCellImgFactory} with default configuration.
      */
@@ -185,23 +190,114 @@ public class N5CachedCellImgFactory<T extends NativeType<T>> extends AbstractRea
     private <A> N5CachedCellImg<T, A> create(final long[] dimensions,
             final CacheLoader<Long, ? extends Cell<? extends A>> cacheLoader, final CellLoader<T> cellLoader,
             final T type, final N5CachedCellImgOptions additionalOptions) {
-        @SuppressWarnings({ "unchecked", "rawtypes" })
-        final N5CachedCellImg<T, A> img = (N5CachedCellImg<T, A>)create(dimensions, cacheLoader, cellLoader, type, 
-        		(NativeTypeFactory) type.getNativeTypeFactory(),
-        additionalOptions);
-        return img;
+        return create(dimensions, cacheLoader, cellLoader, type, additionalOptions, null);
+    }
+
+    /**
+     * Create image, see {@link #create(long[], CacheLoader, CellLoader, NativeType, N5CachedCellImgOptions)}.
+     *
+     * @param appendTo the N5 cell cache of an image that grows to {@code dimensions}, which is reused instead of
+     *            creating a new one, or {@code null}
+     */
+    private <A> N5CachedCellImg<T, A> create(final long[] dimensions,
+            final CacheLoader<Long, ? extends Cell<? extends A>> cacheLoader, final CellLoader<T> cellLoader,
+            final T type, final N5CachedCellImgOptions additionalOptions, final N5CellCache<?, ?> appendTo) {
+        final Creation outer = creation.get();
+        creation.set(new Creation(dimensions.length, cacheLoader, cellLoader, type, additionalOptions, appendTo));
+        try {
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            final N5CachedCellImg<T, A> img = (N5CachedCellImg<T, A>)create(dimensions, cacheLoader, cellLoader, type,
+            		(NativeTypeFactory) type.getNativeTypeFactory(),
+            additionalOptions);
+            return img;
+        } finally {
+            // also drops the cell cache if creating the image failed
+            if (outer == null) {
+                creation.remove();
+            } else {
+                creation.set(outer);
+            }
+        }
+    }
+
+    /**
+     * The state of one create() call: the number of dimensions, for converting
+     * maxCacheBytes, the cell cache handed from createCellCache() to
+     * createCachedCellImg(), and the arguments, for creating the image again
+     * when it is appended to.
+     */
+    private final class Creation {
+
+        final int numDimensions;
+
+        final CacheLoader<Long, ?> cacheLoader;
+
+        final CellLoader<T> cellLoader;
+
+        final T type;
+
+        final N5CachedCellImgOptions additionalOptions;
+
+        // the cell cache to reuse, or null
+        final N5CellCache<?, ?> appendTo;
+
+        N5CellCache<?, ?> cellCache;
+
+        Creation(final int numDimensions, final CacheLoader<Long, ?> cacheLoader, final CellLoader<T> cellLoader,
+                final T type, final N5CachedCellImgOptions additionalOptions, final N5CellCache<?, ?> appendTo) {
+            this.numDimensions = numDimensions;
+            this.cacheLoader = cacheLoader;
+            this.cellLoader = cellLoader;
+            this.type = type;
+            this.additionalOptions = additionalOptions;
+            this.appendTo = appendTo;
+        }
     }
 
     @Override
     N5CachedCellImgOptions mergeWithFactoryOptions(
             AbstractReadWriteCachedCellImgOptions userProvidedOptions) {
-        return (userProvidedOptions == null) ? factoryOptions : factoryOptions.merge(userProvidedOptions);
+        final N5CachedCellImgOptions merged =
+            (userProvidedOptions == null) ? factoryOptions : factoryOptions.merge(userProvidedOptions);
+        final Creation current = creation.get();
+        final long maxCacheBytes = merged.values().maxCacheBytes();
+        if (maxCacheBytes <= 0 || current == null) {
+            return merged;
+        }
+        final long cellBytes = cellBytes(merged.values(), current.numDimensions);
+        return merged.cacheType(CacheType.BOUNDED).maxCacheSize(maxCacheBytes / Math.max(1, cellBytes));
+    }
+
+    // the size of the array of a full cell, as held in memory
+    private long cellBytes(final N5CachedCellImgOptions.Values values, final int numDimensions) {
+        final int[] defaultDims = values.cellDimensions();
+        long numPixels = 1;
+        for (int d = 0; d < numDimensions; ++d) {
+            // missing cell dimensions repeat the last one, as in the cell grid
+            numPixels *= defaultDims[Math.min(d, defaultDims.length - 1)];
+        }
+        final T type = type();
+        return type.getEntitiesPerPixel().mulCeil(numPixels)
+            * AccessIo.get(type, values.accessFlags()).getBytesPerElement();
     }
 
     @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
     protected <A extends ArrayDataAccess<A>> CachedCellImg<T, ? extends A> createCachedCellImg(CellGrid grid,
             Fraction entitiesPerPixel, Cache<Long, Cell<A>> cache, A accessType) {
-        return new N5CachedCellImg<>(this, grid, entitiesPerPixel, cache, accessType);
+        final Creation current = creation.get();
+        final N5CellCache<?, ?> cellCache = current == null ? null : current.cellCache;
+        final N5CachedCellImg<T, A> img = new N5CachedCellImg<>(this, grid, entitiesPerPixel, cache, accessType,
+                cellCache);
+        if (cellCache != null) {
+            img.setAppender(dimensions -> create(dimensions, (CacheLoader) current.cacheLoader, current.cellLoader,
+                    current.type, current.additionalOptions, cellCache));
+            // the hot set was reloaded by the image that is appended to
+            if (current.appendTo == null && cellCache.storedHotSet().length > 0) {
+                img.warmRestart(cellCache.storedHotSet());
+            }
+        }
+        return img;
     }
 
     @Override
@@ -218,18 +314,35 @@ public class N5CachedCellImgFactory<T extends NativeType<T>> extends AbstractRea
             n5optionValues = N5CachedCellImgOptions.options().merge(options).values();
         }
 
+        final Creation current = creation.get();
+        if (current != null && current.appendTo != null) {
+            try {
+                ((N5CellCache) current.appendTo).append(grid, backingLoader);
+            } catch (final IOException e) {
+                throw new RuntimeException(e);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            current.cellCache = current.appendTo;
+            return (ReadWriteCellCache<A>) current.appendTo;
+        }
+
         try {
             Path resultCacheLocation = DiskCachedCellImgFactory.createBlockCachePath(n5optionValues);
 
+            final N5CellCache<?, ?> cellCache;
             if (n5optionValues.dirtyAccesses()) {
-                return (ReadWriteCellCache<A>)(new DirtyN5CellCache(resultCacheLocation, n5optionValues.datasetName(), 
-                grid, backingLoader, entitiesPerPixel, AccessIo.get(type, n5optionValues.accessFlags()),
-                n5optionValues.compression(), type));
+                cellCache = new DirtyN5CellCache(resultCacheLocation, grid, backingLoader,
+                    entitiesPerPixel, AccessIo.get(type, n5optionValues.accessFlags()), type, n5optionValues);
             } else {
-                return (ReadWriteCellCache<A>)(new N5CellCache<>(resultCacheLocation, n5optionValues.datasetName(), 
-                    grid, backingLoader, entitiesPerPixel, AccessIo.get(type, n5optionValues.accessFlags()),
-                    n5optionValues.compression(), type));
+                cellCache = new N5CellCache<>(resultCacheLocation, grid, backingLoader,
+                    entitiesPerPixel, AccessIo.get(type, n5optionValues.accessFlags()), type, n5optionValues);
+            }
+            if (current != null) {
+                current.cellCache = cellCache;
             }
+            return (ReadWriteCellCache<A>)cellCache;
         }
         catch ( final IOException e )
 		{
@@ -29,9 +29,11 @@
 package net.imglib2.cache.img;
 
 import java.nio.file.Path;
+import java.util.concurrent.Executor;
 
 import org.janelia.saalfeldlab.n5.Compression;
 import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5Writer;
 
 import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions.CacheType;
 import net.imglib2.img.cell.CellImgFactory;
@@ -226,6 +228,436 @@ public class N5CachedCellImgOptions extends DiskCachedCellImgOptions {
         return new N5CachedCellImgOptions(values.copy().setDatasetName(datasetName));
     }
 
+    /**
+     * Set the size in bytes of an off-heap tier between the in-memory cache and N5. Cells evicted from the in-memory
+     * cache are kept there in serialized form, outside of the garbage collected heap, and are only written to N5 when
+     * they are evicted from this tier as well.
+     * <p>
+     * This is {@code 0} by default, which means that evicted cells are written to N5 directly.
+     * </p>
+     *
+     * @param offHeapCacheSize the maximum number of bytes of off-heap memory used for cells.
+     */
+    public N5CachedCellImgOptions offHeapCacheSize(final long offHeapCacheSize) {
+        return new N5CachedCellImgOptions(values.copy().setOffHeapCacheSize(offHeapCacheSize));
+    }
+
+    /**
+     * Set the maximum number of N5 block reads, writes and existence probes that are in flight at the same time. If
+     * this is positive, evicted cells are written asynchronously and all block I/O is run on the
+     * {@link #ioExecutor(Executor) I/O executor}. Large values keep high-latency storage (e.g. network file systems)
+     * busy.
+     * <p>
+     * This is {@code 0} by default, which means that blocks are read and written synchronously by the threads of the
+     * cache.
+     * </p>
+     *
+     * @param maxConcurrentIo the maximum number of concurrent block operations.
+     */
+    public N5CachedCellImgOptions maxConcurrentIo(final int maxConcurrentIo) {
+        return new N5CachedCellImgOptions(values.copy().setMaxConcurrentIo(maxConcurrentIo));
+    }
+
+    /**
+     * Set the {@link Executor} running the N5 block I/O if {@link #maxConcurrentIo(int)} is positive. On Java 21 and
+     * later, {@code Executors.newVirtualThreadPerTaskExecutor()} allows for hundreds of operations in flight without
+     * as many OS threads.
+     * <p>
+     * This is {@code null} by default, which means that a shared pool of daemon threads is used.
+     * </p>
+     *
+     * @param ioExecutor the executor for block I/O.
+     */
+    public N5CachedCellImgOptions ioExecutor(final Executor ioExecutor) {
+        return new N5CachedCellImgOptions(values.copy().setIoExecutor(ioExecutor));
+    }
+
+    /**
+     * Record the cell requests and evictions of the cache to the given file, to replay them with
+     * {@link AccessTraceReplay} under different configurations. The trace is complete once the image has been closed
+     * with {@link N5CachedCellImg#close()}. Only requests that miss the in-memory cache are recorded, and the recorded
+     * evictions are not replayed.
+     * <p>
+     * This is {@code null} by default, which means that no trace is recorded.
+     * </p>
+     *
+     * @param accessTrace the file to write the trace to.
+     */
+    public N5CachedCellImgOptions accessTrace(final Path accessTrace) {
+        return new N5CachedCellImgOptions(values.copy().setAccessTrace(accessTrace));
+    }
+
+    /**
+     * Specify whether the cells that are in memory when the image is closed with {@link N5CachedCellImg#close()}
+     * should be written and recorded as the hot set of the dataset, and whether the recorded hot set of an existing
+     * dataset should be loaded in the background when it is reopened. The hot set is reloaded by a single
+     * low-priority thread, most recently used cells last, and at most {@link #maxCacheSize(long)} cells for a bounded
+     * cache.
+     * <p>
+     * This is {@code false} by default.
+     * </p>
+     *
+     * @param warmRestart whether to record and reload the hot set.
+     */
+    public N5CachedCellImgOptions warmRestart(final boolean warmRestart) {
+        return new N5CachedCellImgOptions(values.copy().setWarmRestart(warmRestart));
+    }
+
+    /**
+     * Set the {@link PersistencePolicy} that decides which evicted cells are written to N5.
+     * {@link PersistencePolicy#COST_AWARE} drops cells that the backing loader computes faster than they can be
+     * written and read again, as long as they are not modified. It tells modified cells apart by their
+     * {@link #dirtyAccesses(boolean) dirty accesses}, without them every cell is written.
+     * <p>
+     * This is {@link PersistencePolicy#ALWAYS} by default.
+     * </p>
+     *
+     * @param persistencePolicy the policy for writing evicted cells.
+     */
+    public N5CachedCellImgOptions persistencePolicy(final PersistencePolicy persistencePolicy) {
+        return new N5CachedCellImgOptions(values.copy().setPersistencePolicy(persistencePolicy));
+    }
+
+    /**
+     * Decides which cells evicted from memory are written to N5.
+     */
+    public enum PersistencePolicy {
+        /**
+         * Every cell is written to N5 once.
+         */
+        ALWAYS,
+
+        /**
+         * A cell computed by the backing loader and not modified since is only
+         * written if computing it took longer than the expected time for
+         * writing and reading it again, which is estimated from the measured N5
+         * throughput. Cells are written until the throughput has been measured.
+         * Modified cells are always written, which requires dirty accesses to
+         * be detected.
+         */
+        COST_AWARE
+    }
+
+    /**
+     * Set the {@link FloatEncoding} in which cells of {@code float} or {@code double} based types, e.g.
+     * {@code FloatType} or {@code DoubleType}, are stored in N5. Reduced representations are lossy, see
+     * {@link FloatEncoding} for their error bounds. Cells read from N5 are reconstructed at full precision. The
+     * encoding is ignored for other types.
+     * <p>
+     * This is {@link FloatEncoding#FULL} by default.
+     * </p>
+     *
+     * @param floatEncoding the representation of floating-point cells in N5.
+     */
+    public N5CachedCellImgOptions floatEncoding(final FloatEncoding floatEncoding) {
+        return new N5CachedCellImgOptions(values.copy().setFloatEncoding(floatEncoding));
+    }
+
+    /**
+     * The representation of floating-point cells in N5.
+     */
+    public enum FloatEncoding {
+        /**
+         * Values are stored at full precision.
+         */
+        FULL,
+
+        /**
+         * Values are stored as IEEE 754 half precision floats. The relative
+         * error is at most {@code 2^-11} for magnitudes between
+         * {@code 2^-14} and {@code 65504}, smaller magnitudes have an absolute
+         * error of at most {@code 2^-25}, and larger ones become infinite.
+         */
+        HALF,
+
+        /**
+         * Values are stored as 16 bit integers scaled to the range of the
+         * finite values of each block. The absolute error is at most
+         * {@code (max - min) / 131068}. {@code NaN}s are retained, infinite
+         * values are clamped to the range.
+         */
+        SCALED_16,
+
+        /**
+         * Values are stored as 8 bit integers scaled to the range of the
+         * finite values of each block. The absolute error is at most
+         * {@code (max - min) / 508}. {@code NaN}s are retained, infinite
+         * values are clamped to the range.
+         */
+        SCALED_8
+    }
+
+    /**
+     * Set the {@link Shuffle} filter applied to the serialized cells before they are compressed. Grouping the bytes
+     * or bits of the same significance typically improves compression ratio and speed considerably for 16, 32 and 64
+     * bit types. The filter is applied after the {@link #floatEncoding(FloatEncoding) float encoding}.
+     * <p>
+     * This is {@link Shuffle#NONE} by default.
+     * </p>
+     *
+     * @param shuffle the filter applied before compression.
+     */
+    public N5CachedCellImgOptions shuffle(final Shuffle shuffle) {
+        return new N5CachedCellImgOptions(values.copy().setShuffle(shuffle));
+    }
+
+    /**
+     * How blocks written to a local cache directory are protected against crashes.
+     */
+    public enum Durability {
+        /**
+         * Blocks are written without syncing, for caches that are thrown away, e.g. in temporary directories. After
+         * a crash, blocks may be incomplete, and the present blocks are found by listing the dataset.
+         */
+        SCRATCH,
+
+        /**
+         * Blocks are published atomically, their writes are synced in groups, and a manifest of the present blocks is
+         * kept, see {@link DurableBlockStore}. After a crash, every listed block is complete, and reopening the cache
+         * reads the manifest instead of listing the dataset.
+         */
+        DURABLE
+    }
+
+    /**
+     * Filters reordering the bytes of a cell before compression, see {@link ShuffleCodec}.
+     */
+    public enum Shuffle {
+        /**
+         * Bytes are stored in the order of the elements.
+         */
+        NONE,
+
+        /**
+         * Bytes of the same significance are grouped.
+         */
+        BYTE,
+
+        /**
+         * Bits of the same significance are grouped.
+         */
+        BIT
+    }
+
+    /**
+     * Set the N5 container that stores the cells instead of a local N5 container in the
+     * {@link #cacheDirectory(Path) cache directory}, e.g. a writer for S3-compatible object storage. The container
+     * is never listed: the cells present in the dataset are recorded in the
+     * {@link N5CellCache#PRESENT_CELLS_ATTRIBUTE} when the image is closed with {@link N5CachedCellImg#close()}. If
+     * that attribute is missing, cells are probed by reading them before they are computed.
+     * <p>
+     * Unless {@link #maxConcurrentIo(int)} is positive, up to {@value N5CellCache#DEFAULT_REMOTE_CONCURRENT_IO} block
+     * operations are in flight at the same time to hide the latency of the container.
+     * </p>
+     * <p>
+     * This is {@code null} by default, which means that a local N5 container is used.
+     * </p>
+     *
+     * @param n5Writer the container to store the cells in.
+     */
+    public N5CachedCellImgOptions n5Writer(final N5Writer n5Writer) {
+        return new N5CachedCellImgOptions(values.copy().setN5Writer(n5Writer));
+    }
+
+    /**
+     * Set the size in bytes of independently compressed sub-chunks of a block. If this is positive, every block is
+     * split into sub-chunks of this size, which are deflated (zlib) on several cores in parallel instead of compressing
+     * the block with the {@link #compression(Compression) N5 compression} on one core. This speeds up reading and
+     * writing single large cells, e.g. of {@code 256^3} pixels, at the cost of a slightly lower compression ratio.
+     * <p>
+     * This is {@code 0} by default, which means that blocks are compressed as a whole.
+     * </p>
+     *
+     * @param compressionChunkSize the number of uncompressed bytes of a sub-chunk.
+     */
+    public N5CachedCellImgOptions compressionChunkSize(final int compressionChunkSize) {
+        return new N5CachedCellImgOptions(values.copy().setCompressionChunkSize(compressionChunkSize));
+    }
+
+    /**
+     * Set the {@link OffHeapPolicy} of the off-heap tier (see {@link #offHeapCacheSize(long)}), which decides which
+     * cells evicted from memory are kept there and which are written to N5 instead. The policy does not change which
+     * cells the in-memory cache keeps, nor its bound. {@link OffHeapPolicy#TINY_LFU} requires an off-heap tier, i.e.
+     * a positive {@link #offHeapCacheSize(long)} or a {@link #memoryBudget(CellMemoryBudget)}, otherwise creating the
+     * image fails with an {@link IllegalArgumentException}.
+     * <p>
+     * This is {@link OffHeapPolicy#LRU} by default.
+     * </p>
+     *
+     * @param offHeapPolicy the admission and eviction policy of the off-heap tier.
+     */
+    public N5CachedCellImgOptions offHeapPolicy(final OffHeapPolicy offHeapPolicy) {
+        return new N5CachedCellImgOptions(values.copy().setOffHeapPolicy(offHeapPolicy));
+    }
+
+    /**
+     * Admission and eviction policies of the off-heap tier.
+     */
+    public enum OffHeapPolicy {
+        /**
+         * Every cell is admitted, the least recently used cells are evicted.
+         */
+        LRU,
+
+        /**
+         * A cell is only admitted to a full tier if it was requested more often recently than the least recently used
+         * cell, which is evicted then (TinyLFU). Cells that are requested repeatedly stay resident during sweeps over
+         * many cells, which reduces N5 writes and re-reads.
+         */
+        TINY_LFU
+    }
+
+    /**
+     * Set the maximum number of bytes of the cells in memory, which is converted to a {@link #maxCacheSize(long)
+     * maximum number of cells} using the actual size of a cell's array ({@code entitiesPerPixel} times the bytes per
+     * entity), and implies a {@link CacheType#BOUNDED bounded} cache. Cells at the border of the image are accounted as
+     * full cells. With a {@link #memoryBudget(CellMemoryBudget)}, the bytes are reserved from the budget when the image
+     * is created, which fails with an {@link IllegalArgumentException} if the budget can not cover them.
+     * <p>
+     * This is {@code 0} by default, which means that {@link #maxCacheSize(long)} applies.
+     * </p>
+     *
+     * @param maxCacheBytes the maximum number of bytes of the cells in memory.
+     */
+    public N5CachedCellImgOptions maxCacheBytes(final long maxCacheBytes) {
+        return new N5CachedCellImgOptions(values.copy().setMaxCacheBytes(maxCacheBytes));
+    }
+
+    /**
+     * Set a {@link CellMemoryBudget} shared with other images, e.g. all images of the process. Cells evicted from memory
+     * are kept in the off-heap tier until the cells of all images sharing the budget exceed it; then the least recently
+     * used cells across all images are written to N5. If {@link #offHeapCacheSize(long)} is also set, it additionally
+     * bounds the off-heap tier of this image. The cells in memory are only charged to the budget by reserving
+     * {@link #maxCacheBytes(long)}.
+     * <p>
+     * This is {@code null} by default, which means that only {@link #offHeapCacheSize(long)} applies.
+     * </p>
+     *
+     * @param memoryBudget the shared budget of the off-heap tier.
+     */
+    public N5CachedCellImgOptions memoryBudget(final CellMemoryBudget memoryBudget) {
+        return new N5CachedCellImgOptions(values.copy().setMemoryBudget(memoryBudget));
+    }
+
+    /**
+     * Set a fingerprint of the computation producing the cells, e.g. a digest of the pipeline configuration and the
+     * versions of its inputs. The cells are cached in a dataset of the {@link #datasetName(String) dataset name} suffixed
+     * by a hash of the fingerprint, which records the fingerprint in its attributes. Hence a run with the same
+     * fingerprint reuses the cells of a previous run, while a run with a different one starts with a fresh dataset
+     * instead of reading stale results.
+     * <p>
+     * This is {@code null} by default, which means that a dataset of the dataset name is reused if its type, size and
+     * block size match.
+     * </p>
+     *
+     * @param fingerprint the fingerprint of the computation producing the cells.
+     */
+    public N5CachedCellImgOptions fingerprint(final String fingerprint) {
+        return new N5CachedCellImgOptions(values.copy().setFingerprint(fingerprint));
+    }
+
+    /**
+     * Set whether the last dimension of the image, e.g. time, may grow between sessions. An existing dataset that is
+     * smaller than the image along the last dimension, and matches it otherwise, is then reused and its size attribute
+     * is extended; its blocks are not rewritten. An open image grows with {@link N5CachedCellImg#append(long)}, which
+     * keeps its N5 cache; alternatively, close the current image and create one of the new size with the same options.
+     * Cells that were at the border of the smaller image are completed by the backing loader and written again. Packed
+     * types, e.g. {@code BitType}, must be stored in longs.
+     * <p>
+     * This is {@code false} by default, which means that the size of an existing dataset must match the image.
+     * </p>
+     *
+     * @param appendable whether the last dimension may grow.
+     */
+    public N5CachedCellImgOptions appendable(final boolean appendable) {
+        return new N5CachedCellImgOptions(values.copy().setAppendable(appendable));
+    }
+
+    /**
+     * Set whether cells that are not present in N5 are empty rather than computed by the backing loader, e.g. for
+     * label volumes that are painted into and are mostly background. Such cells share an array of zeros, see
+     * {@link SparseAccesses}, and allocate their own array only when they are written, which marks them dirty. Cells
+     * that were never written are neither kept in the off-heap tier nor persisted. The backing loader is never called,
+     * hence a sparse image must not be created with a {@link CellLoader} that computes its cells: all content comes
+     * from writes to the image.
+     * <p>
+     * This requires {@link #dirtyAccesses(boolean) dirty accesses} of a type stored in {@code byte}, {@code short},
+     * {@code int} or {@code long} arrays, e.g. an integer or label type. This is {@code false} by default.
+     * </p>
+     *
+     * @param sparse whether cells that are not present in N5 are empty.
+     */
+    public N5CachedCellImgOptions sparse(final boolean sparse) {
+        return new N5CachedCellImgOptions(values.copy().setSparse(sparse));
+    }
+
+    /**
+     * Set whether the requests, N5 reads, computations and evictions are counted per cell, see
+     * {@link CellAccessProfile}. The profile is obtained with {@link N5CellCache#accessProfile()} and can be exported
+     * to N5 to view the hot regions of the image.
+     * <p>
+     * This is {@code false} by default, which means that no profile is kept.
+     * </p>
+     *
+     * @param accessProfile whether accesses are counted per cell.
+     */
+    public N5CachedCellImgOptions accessProfile(final boolean accessProfile) {
+        return new N5CachedCellImgOptions(values.copy().setAccessProfile(accessProfile));
+    }
+
+    /**
+     * Set whether block reads are dispatched before queued block writes if {@link #maxConcurrentIo(int)} is positive,
+     * such that writing evicted cells does not stall the reads a viewer waits for. Writes are still dispatched after
+     * {@link #maxWriteDelay(long)} and at {@link #minWriteShare(double)}, see {@link BlockIoExecutor}.
+     * <p>
+     * This is {@code false} by default, which means that operations are dispatched in the order of submission.
+     * </p>
+     *
+     * @param readPriority whether reads have priority over writes.
+     */
+    public N5CachedCellImgOptions readPriority(final boolean readPriority) {
+        return new N5CachedCellImgOptions(values.copy().setReadPriority(readPriority));
+    }
+
+    /**
+     * Set the time in milliseconds after which a queued block write is dispatched before queued reads, if reads have
+     * {@link #readPriority(boolean) priority}.
+     * <p>
+     * This is {@code 200} by default.
+     * </p>
+     *
+     * @param maxWriteDelay the maximum delay of a write in milliseconds.
+     */
+    public N5CachedCellImgOptions maxWriteDelay(final long maxWriteDelay) {
+        return new N5CachedCellImgOptions(values.copy().setMaxWriteDelay(maxWriteDelay));
+    }
+
+    /**
+     * Set the minimum share of block writes among the dispatched I/O operations while writes are queued, if reads have
+     * {@link #readPriority(boolean) priority}. This bounds the growth of the write backlog during long read bursts.
+     * <p>
+     * This is {@code 0.2} by default, i.e. at least every fifth operation is a write. It must be in {@code [0, 1)}.
+     * </p>
+     *
+     * @param minWriteShare the minimum share of writes.
+     */
+    public N5CachedCellImgOptions minWriteShare(final double minWriteShare) {
+        return new N5CachedCellImgOptions(values.copy().setMinWriteShare(minWriteShare));
+    }
+
+    /**
+     * Set how blocks written to a local cache directory are protected against crashes, see {@link Durability}. Blocks
+     * of an {@link #n5Writer(N5Writer) N5Writer} passed in are written by it as they are.
+     * <p>
+     * This is {@link Durability#SCRATCH} by default.
+     * </p>
+     *
+     * @param durability the durability of the blocks.
+     */
+    public N5CachedCellImgOptions durability(final Durability durability) {
+        return new N5CachedCellImgOptions(values.copy().setDurability(durability));
+    }
+
     /**
      * Read-only {@link N5CachedCellImgOptions} values.
      */
@@ -236,7 +668,51 @@ public class N5CachedCellImgOptions extends DiskCachedCellImgOptions {
         Values(final Values that) {
             super(that);
             this.datasetName = that.datasetName;
+            this.datasetNameModified = that.datasetNameModified;
             this.compression = that.compression;
+            this.compressionModified = that.compressionModified;
+            this.offHeapCacheSize = that.offHeapCacheSize;
+            this.offHeapCacheSizeModified = that.offHeapCacheSizeModified;
+            this.maxConcurrentIo = that.maxConcurrentIo;
+            this.maxConcurrentIoModified = that.maxConcurrentIoModified;
+            this.ioExecutor = that.ioExecutor;
+            this.ioExecutorModified = that.ioExecutorModified;
+            this.accessTrace = that.accessTrace;
+            this.accessTraceModified = that.accessTraceModified;
+            this.warmRestart = that.warmRestart;
+            this.warmRestartModified = that.warmRestartModified;
+            this.persistencePolicy = that.persistencePolicy;
+            this.persistencePolicyModified = that.persistencePolicyModified;
+            this.floatEncoding = that.floatEncoding;
+            this.floatEncodingModified = that.floatEncodingModified;
+            this.shuffle = that.shuffle;
+            this.shuffleModified = that.shuffleModified;
+            this.n5Writer = that.n5Writer;
+            this.n5WriterModified = that.n5WriterModified;
+            this.compressionChunkSize = that.compressionChunkSize;
+            this.compressionChunkSizeModified = that.compressionChunkSizeModified;
+            this.offHeapPolicy = that.offHeapPolicy;
+            this.offHeapPolicyModified = that.offHeapPolicyModified;
+            this.maxCacheBytes = that.maxCacheBytes;
+            this.maxCacheBytesModified = that.maxCacheBytesModified;
+            this.memoryBudget = that.memoryBudget;
+            this.memoryBudgetModified = that.memoryBudgetModified;
+            this.fingerprint = that.fingerprint;
+            this.fingerprintModified = that.fingerprintModified;
+            this.appendable = that.appendable;
+            this.appendableModified = that.appendableModified;
+            this.sparse = that.sparse;
+            this.sparseModified = that.sparseModified;
+            this.accessProfile = that.accessProfile;
+            this.accessProfileModified = that.accessProfileModified;
+            this.readPriority = that.readPriority;
+            this.readPriorityModified = that.readPriorityModified;
+            this.maxWriteDelay = that.maxWriteDelay;
+            this.maxWriteDelayModified = that.maxWriteDelayModified;
+            this.minWriteShare = that.minWriteShare;
+            this.minWriteShareModified = that.minWriteShareModified;
+            this.durability = that.durability;
+            this.durabilityModified = that.durabilityModified;
         }
 
         Values() {
@@ -246,6 +722,27 @@ public class N5CachedCellImgOptions extends DiskCachedCellImgOptions {
             super(base, aug);
             datasetName = aug.datasetNameModified ? aug.datasetName : base.datasetName;
             compression = aug.compressionModified ? aug.compression : base.compression;
+            offHeapCacheSize = aug.offHeapCacheSizeModified ? aug.offHeapCacheSize : base.offHeapCacheSize;
+            maxConcurrentIo = aug.maxConcurrentIoModified ? aug.maxConcurrentIo : base.maxConcurrentIo;
+            ioExecutor = aug.ioExecutorModified ? aug.ioExecutor : base.ioExecutor;
+            accessTrace = aug.accessTraceModified ? aug.accessTrace : base.accessTrace;
+            warmRestart = aug.warmRestartModified ? aug.warmRestart : base.warmRestart;
+            persistencePolicy = aug.persistencePolicyModified ? aug.persistencePolicy : base.persistencePolicy;
+            floatEncoding = aug.floatEncodingModified ? aug.floatEncoding : base.floatEncoding;
+            shuffle = aug.shuffleModified ? aug.shuffle : base.shuffle;
+            n5Writer = aug.n5WriterModified ? aug.n5Writer : base.n5Writer;
+            compressionChunkSize = aug.compressionChunkSizeModified ? aug.compressionChunkSize : base.compressionChunkSize;
+            offHeapPolicy = aug.offHeapPolicyModified ? aug.offHeapPolicy : base.offHeapPolicy;
+            maxCacheBytes = aug.maxCacheBytesModified ? aug.maxCacheBytes : base.maxCacheBytes;
+            memoryBudget = aug.memoryBudgetModified ? aug.memoryBudget : base.memoryBudget;
+            fingerprint = aug.fingerprintModified ? aug.fingerprint : base.fingerprint;
+            appendable = aug.appendableModified ? aug.appendable : base.appendable;
+            sparse = aug.sparseModified ? aug.sparse : base.sparse;
+            accessProfile = aug.accessProfileModified ? aug.accessProfile : base.accessProfile;
+            readPriority = aug.readPriorityModified ? aug.readPriority : base.readPriority;
+            maxWriteDelay = aug.maxWriteDelayModified ? aug.maxWriteDelay : base.maxWriteDelay;
+            minWriteShare = aug.minWriteShareModified ? aug.minWriteShare : base.minWriteShare;
+            durability = aug.durabilityModified ? aug.durability : base.durability;
         }
 
         Values( final Values base, final AbstractReadWriteCachedCellImgOptions.Values aug )
@@ -253,6 +750,27 @@ public class N5CachedCellImgOptions extends DiskCachedCellImgOptions {
 			super(base, aug);
             datasetName = base.datasetName;
             compression = base.compression;
+            offHeapCacheSize = base.offHeapCacheSize;
+            maxConcurrentIo = base.maxConcurrentIo;
+            ioExecutor = base.ioExecutor;
+            accessTrace = base.accessTrace;
+            warmRestart = base.warmRestart;
+            persistencePolicy = base.persistencePolicy;
+            floatEncoding = base.floatEncoding;
+            shuffle = base.shuffle;
+            n5Writer = base.n5Writer;
+            compressionChunkSize = base.compressionChunkSize;
+            offHeapPolicy = base.offHeapPolicy;
+            maxCacheBytes = base.maxCacheBytes;
+            memoryBudget = base.memoryBudget;
+            fingerprint = base.fingerprint;
+            appendable = base.appendable;
+            sparse = base.sparse;
+            accessProfile = base.accessProfile;
+            readPriority = base.readPriority;
+            maxWriteDelay = base.maxWriteDelay;
+            minWriteShare = base.minWriteShare;
+            durability = base.durability;
 		}
 
         public N5CachedCellImgOptions optionsFromValues() {
@@ -263,6 +781,48 @@ public class N5CachedCellImgOptions extends DiskCachedCellImgOptions {
 
         private Compression compression = new GzipCompression();
 
+        private long offHeapCacheSize = 0;
+
+        private int maxConcurrentIo = 0;
+
+        private Executor ioExecutor = null;
+
+        private Path accessTrace = null;
+
+        private boolean warmRestart = false;
+
+        private PersistencePolicy persistencePolicy = PersistencePolicy.ALWAYS;
+
+        private FloatEncoding floatEncoding = FloatEncoding.FULL;
+
+        private Shuffle shuffle = Shuffle.NONE;
+
+        private N5Writer n5Writer = null;
+
+        private int compressionChunkSize = 0;
+
+        private OffHeapPolicy offHeapPolicy = OffHeapPolicy.LRU;
+
+        private long maxCacheBytes = 0;
+
+        private CellMemoryBudget memoryBudget = null;
+
+        private String fingerprint = null;
+
+        private boolean appendable = false;
+
+        private boolean sparse = false;
+
+        private boolean accessProfile = false;
+
+        private boolean readPriority = false;
+
+        private long maxWriteDelay = 200;
+
+        private double minWriteShare = 0.2;
+
+        private Durability durability = Durability.SCRATCH;
+
         public String datasetName() {
             return datasetName;
         }
@@ -271,10 +831,136 @@ public class N5CachedCellImgOptions extends DiskCachedCellImgOptions {
             return compression;
         }
 
+        public long offHeapCacheSize() {
+            return offHeapCacheSize;
+        }
+
+        public int maxConcurrentIo() {
+            return maxConcurrentIo;
+        }
+
+        public Executor ioExecutor() {
+            return ioExecutor;
+        }
+
+        public Path accessTrace() {
+            return accessTrace;
+        }
+
+        public boolean warmRestart() {
+            return warmRestart;
+        }
+
+        public PersistencePolicy persistencePolicy() {
+            return persistencePolicy;
+        }
+
+        public FloatEncoding floatEncoding() {
+            return floatEncoding;
+        }
+
+        public Shuffle shuffle() {
+            return shuffle;
+        }
+
+        public N5Writer n5Writer() {
+            return n5Writer;
+        }
+
+        public int compressionChunkSize() {
+            return compressionChunkSize;
+        }
+
+        public OffHeapPolicy offHeapPolicy() {
+            return offHeapPolicy;
+        }
+
+        public long maxCacheBytes() {
+            return maxCacheBytes;
+        }
+
+        public CellMemoryBudget memoryBudget() {
+            return memoryBudget;
+        }
+
+        public String fingerprint() {
+            return fingerprint;
+        }
+
+        public boolean appendable() {
+            return appendable;
+        }
+
+        public boolean sparse() {
+            return sparse;
+        }
+
+        public boolean accessProfile() {
+            return accessProfile;
+        }
+
+        public boolean readPriority() {
+            return readPriority;
+        }
+
+        public long maxWriteDelay() {
+            return maxWriteDelay;
+        }
+
+        public double minWriteShare() {
+            return minWriteShare;
+        }
+
+        public Durability durability() {
+            return durability;
+        }
+
         private boolean datasetNameModified = false;
 
         private boolean compressionModified = false;
 
+        private boolean offHeapCacheSizeModified = false;
+
+        private boolean maxConcurrentIoModified = false;
+
+        private boolean ioExecutorModified = false;
+
+        private boolean accessTraceModified = false;
+
+        private boolean warmRestartModified = false;
+
+        private boolean persistencePolicyModified = false;
+
+        private boolean floatEncodingModified = false;
+
+        private boolean shuffleModified = false;
+
+        private boolean n5WriterModified = false;
+
+        private boolean compressionChunkSizeModified = false;
+
+        private boolean offHeapPolicyModified = false;
+
+        private boolean maxCacheBytesModified = false;
+
+        private boolean memoryBudgetModified = false;
+
+        private boolean fingerprintModified = false;
+
+        private boolean appendableModified = false;
+
+        private boolean sparseModified = false;
+
+        private boolean accessProfileModified = false;
+
+        private boolean readPriorityModified = false;
+
+        private boolean maxWriteDelayModified = false;
+
+        private boolean minWriteShareModified = false;
+
+        private boolean durabilityModified = false;
+
         @Override
         Values setCacheDirectory( final Path dir )
 		{
@@ -365,6 +1051,132 @@ public class N5CachedCellImgOptions extends DiskCachedCellImgOptions {
             return this;
         }
 
+        Values setOffHeapCacheSize(final long offHeapCacheSize) {
+            this.offHeapCacheSize = offHeapCacheSize;
+            offHeapCacheSizeModified = true;
+            return this;
+        }
+
+        Values setMaxConcurrentIo(final int maxConcurrentIo) {
+            this.maxConcurrentIo = maxConcurrentIo;
+            maxConcurrentIoModified = true;
+            return this;
+        }
+
+        Values setIoExecutor(final Executor ioExecutor) {
+            this.ioExecutor = ioExecutor;
+            ioExecutorModified = true;
+            return this;
+        }
+
+        Values setAccessTrace(final Path accessTrace) {
+            this.accessTrace = accessTrace;
+            accessTraceModified = true;
+            return this;
+        }
+
+        Values setWarmRestart(final boolean warmRestart) {
+            this.warmRestart = warmRestart;
+            warmRestartModified = true;
+            return this;
+        }
+
+        Values setPersistencePolicy(final PersistencePolicy persistencePolicy) {
+            this.persistencePolicy = persistencePolicy;
+            persistencePolicyModified = true;
+            return this;
+        }
+
+        Values setFloatEncoding(final FloatEncoding floatEncoding) {
+            this.floatEncoding = floatEncoding;
+            floatEncodingModified = true;
+            return this;
+        }
+
+        Values setShuffle(final Shuffle shuffle) {
+            this.shuffle = shuffle;
+            shuffleModified = true;
+            return this;
+        }
+
+        Values setN5Writer(final N5Writer n5Writer) {
+            this.n5Writer = n5Writer;
+            n5WriterModified = true;
+            return this;
+        }
+
+        Values setCompressionChunkSize(final int compressionChunkSize) {
+            this.compressionChunkSize = compressionChunkSize;
+            compressionChunkSizeModified = true;
+            return this;
+        }
+
+        Values setOffHeapPolicy(final OffHeapPolicy offHeapPolicy) {
+            this.offHeapPolicy = offHeapPolicy;
+            offHeapPolicyModified = true;
+            return this;
+        }
+
+        Values setMaxCacheBytes(final long maxCacheBytes) {
+            this.maxCacheBytes = maxCacheBytes;
+            maxCacheBytesModified = true;
+            return this;
+        }
+
+        Values setMemoryBudget(final CellMemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            memoryBudgetModified = true;
+            return this;
+        }
+
+        Values setFingerprint(final String fingerprint) {
+            this.fingerprint = fingerprint;
+            fingerprintModified = true;
+            return this;
+        }
+
+        Values setAppendable(final boolean appendable) {
+            this.appendable = appendable;
+            appendableModified = true;
+            return this;
+        }
+
+        Values setSparse(final boolean sparse) {
+            this.sparse = sparse;
+            sparseModified = true;
+            return this;
+        }
+
+        Values setAccessProfile(final boolean accessProfile) {
+            this.accessProfile = accessProfile;
+            accessProfileModified = true;
+            return this;
+        }
+
+        Values setReadPriority(final boolean readPriority) {
+            this.readPriority = readPriority;
+            readPriorityModified = true;
+            return this;
+        }
+
+        Values setMaxWriteDelay(final long maxWriteDelay) {
+            this.maxWriteDelay = maxWriteDelay;
+            maxWriteDelayModified = true;
+            return this;
+        }
+
+        Values setMinWriteShare(final double minWriteShare) {
+            this.minWriteShare = minWriteShare;
+            minWriteShareModified = true;
+            return this;
+        }
+
+        Values setDurability(final Durability durability) {
+            this.durability = durability;
+            durabilityModified = true;
+            return this;
+        }
+
         Values copy() {
             return new Values(this);
         }
@@ -391,6 +1203,132 @@ public class N5CachedCellImgOptions extends DiskCachedCellImgOptions {
                 sb.append( " [m]" );
             sb.append(", ");
 
+            sb.append("offHeapCacheSize = ");
+            sb.append(offHeapCacheSize);
+            if (offHeapCacheSizeModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("maxConcurrentIo = ");
+            sb.append(maxConcurrentIo);
+            if (maxConcurrentIoModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("ioExecutor = ");
+            sb.append(ioExecutor == null ? "shared" : ioExecutor.getClass().getSimpleName());
+            if (ioExecutorModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("accessTrace = ");
+            sb.append(accessTrace);
+            if (accessTraceModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("warmRestart = ");
+            sb.append(warmRestart);
+            if (warmRestartModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("persistencePolicy = ");
+            sb.append(persistencePolicy);
+            if (persistencePolicyModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("floatEncoding = ");
+            sb.append(floatEncoding);
+            if (floatEncodingModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("shuffle = ");
+            sb.append(shuffle);
+            if (shuffleModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("n5Writer = ");
+            sb.append(n5Writer == null ? "local" : n5Writer.getClass().getSimpleName());
+            if (n5WriterModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("compressionChunkSize = ");
+            sb.append(compressionChunkSize);
+            if (compressionChunkSizeModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("offHeapPolicy = ");
+            sb.append(offHeapPolicy);
+            if (offHeapPolicyModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("maxCacheBytes = ");
+            sb.append(maxCacheBytes);
+            if (maxCacheBytesModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("memoryBudget = ");
+            sb.append(memoryBudget);
+            if (memoryBudgetModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("fingerprint = ");
+            sb.append(fingerprint);
+            if (fingerprintModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("appendable = ");
+            sb.append(appendable);
+            if (appendableModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("sparse = ");
+            sb.append(sparse);
+            if (sparseModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("accessProfile = ");
+            sb.append(accessProfile);
+            if (accessProfileModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("readPriority = ");
+            sb.append(readPriority);
+            if (readPriorityModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("maxWriteDelay = ");
+            sb.append(maxWriteDelay);
+            if (maxWriteDelayModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("minWriteShare = ");
+            sb.append(minWriteShare);
+            if (minWriteShareModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
+            sb.append("durability = ");
+            sb.append(durability);
+            if (durabilityModified)
+                sb.append( " [m]" );
+            sb.append(", ");
+
             sb.append("}");
 
             return sb.toString();
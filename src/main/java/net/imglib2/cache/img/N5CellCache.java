@@ -1,19 +1,47 @@
 package net.imglib2.cache.img;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataBlock;
 import org.janelia.saalfeldlab.n5.DataType;
 import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.GzipCompression;
@@ -21,19 +49,24 @@ import org.janelia.saalfeldlab.n5.N5FSReader;
 import org.janelia.saalfeldlab.n5.N5FSWriter;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.N5Writer;
-import org.janelia.saalfeldlab.n5.imglib2.N5CellLoader;
+import org.janelia.saalfeldlab.n5.RawCompression;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 
 import net.imglib2.Dirty;
 import net.imglib2.cache.CacheLoader;
 import net.imglib2.cache.CacheRemover;
 import net.imglib2.cache.IoSync;
-import net.imglib2.img.basictypeaccess.ArrayDataAccessFactory;
+import net.imglib2.cache.img.N5CachedCellImgOptions.Durability;
+import net.imglib2.cache.img.N5CachedCellImgOptions.FloatEncoding;
+import net.imglib2.cache.img.N5CachedCellImgOptions.OffHeapPolicy;
+import net.imglib2.cache.img.N5CachedCellImgOptions.PersistencePolicy;
+import net.imglib2.cache.img.N5CachedCellImgOptions.Shuffle;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions.CacheType;
 import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
 import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.type.NativeType;
-import net.imglib2.type.NativeTypeFactory;
+import net.imglib2.type.PrimitiveType;
 import net.imglib2.util.Fraction;
 import net.imglib2.util.IntervalIndexer;
 import net.imglib2.util.Intervals;
@@ -43,11 +76,28 @@ import net.imglib2.util.Intervals;
  * n5 Image.
  * <p>
  * Blocks which are not in the output n5 cache (yet) are obtained from a backing
- * {@link CacheLoader}. The availability of N5 blocks is managed by a HashSet m_cachedSet, 
+ * {@link CacheLoader}. The availability of N5 blocks is managed by a concurrent set m_cachedSet, 
  * because N5 currently does not provide a method to check whether a block exists,
  * it simply returns zeros if that's not the case.
  * </p>
  * <p>
+ * Cells are stored as the raw entities of their access, i.e. the N5 blocks
+ * contain exactly what {@link AccessIo} serializes. For types that pack
+ * several pixels into one entity (e.g. {@code BitType}, where
+ * {@code entitiesPerPixel} is 1/64) the packed {@code long}s are written
+ * directly, so a binary mask only occupies one bit per voxel on disk.
+ * </p>
+ * <p>
+ * If {@link N5CachedCellImgOptions#maxConcurrentIo(int)} is positive, block I/O
+ * runs on a {@link BlockIoExecutor} and evicted cells are written
+ * asynchronously. Cells whose write is still in flight are served from memory.
+ * </p>
+ * <p>
+ * Blocks are read and decoded by a {@link N5CellReader} and written through a
+ * {@link CellWriteQueue}; this class decides where a cell comes from and
+ * whether an evicted cell is written.
+ * </p>
+ * <p>
  * <em> A {@link N5CellCache} should be connected to a in-memory cache through
  * {@link IoSync} if the cache will be used concurrently by multiple threads!
  * </em>
@@ -66,27 +116,118 @@ public class N5CellCache<T extends NativeType<T>, A extends ArrayDataAccess<A>>
     // the I/O componentes
     private final N5Reader m_reader;
 
-    private final N5CellLoader<T> m_loader;
-
     private final N5Writer m_writer;
 
-    private final CacheLoader<Long, Cell<A>> m_backingLoader;
+    // the grid dependent fields are replaced when the image is appended to
+    private volatile CacheLoader<Long, Cell<A>> m_backingLoader;
 
-    private final N5CellStorer<A> m_storer;
+    private volatile N5CellStorer<A> m_storer;
 
-    private final Set<Long> m_cachedSet = new HashSet<>();
+    private final Set<Long> m_cachedSet = ConcurrentHashMap.newKeySet();
 
-    private final CellGrid m_grid;
+    private volatile CellGrid m_grid;
 
     private final Fraction m_entitiesPerPixel;
 
-    private final ArrayDataAccess<A> m_creator;
+    private final AccessIo<A> m_accessIo;
+
+    // converts the byte order of whole cells at once
+    private final BulkAccessIo<A> m_bulkIo;
 
     private final String m_dataset;
 
-    private final DatasetAttributes m_attributes;
+    // reads the blocks of the current grid, replaced when the image is appended to
+    private volatile N5CellReader<A> m_cellReader;
+
+    // decodes the payload of the blocks, or null if the blocks hold the serialized cells
+    private final BlockCodec m_codec;
 
-    private T m_type;
+    /**
+     * The name of the dataset attribute recording the cells present in a
+     * dataset that is not stored in a local N5 container, as pairs of the first
+     * index and the number of consecutive indices of each run of present cells.
+     */
+    public static final String PRESENT_CELLS_ATTRIBUTE = "presentCells";
+
+    /**
+     * The number of concurrent block operations for a container that is not
+     * stored locally, unless configured otherwise.
+     */
+    public static final int DEFAULT_REMOTE_CONCURRENT_IO = 32;
+
+    // whether the container is provided by the options rather than a local N5 container
+    private final boolean m_remote;
+
+    // whether cells that are not in m_cachedSet may be present nonetheless, because the manifest was missing
+    private final boolean m_presenceUnknown;
+
+    // cells whose blocks are stale since they were invalidated and have not been written again
+    private final Set<Long> m_invalidated = ConcurrentHashMap.newKeySet();
+
+    // the directory of the blocks of a local container, or null
+    private final Path m_blockRoot;
+
+    // writes the blocks of a local container durably, or null
+    private final DurableBlockStore m_durableStore;
+
+    // whether the last dimension may have grown since blocks were written
+    private final boolean m_appendable;
+
+    // the class of the accesses if cells that are not present in N5 are empty, or null
+    private final Class<?> m_sparseAccessClass;
+
+    // off-heap tier between the in-memory cache and N5, or null
+    private final OffHeapCellStore<A> m_offHeapStore;
+
+    // the shared budget charged with the in-memory cache of the image, or null
+    private CellMemoryBudget m_reservingBudget;
+
+    private long m_reservedBytes;
+
+    // runs block I/O asynchronously, or null if I/O is done by the calling threads
+    private final BlockIoExecutor m_io;
+
+    // writes evicted cells in order, asynchronously on m_io if there is one
+    private final CellWriteQueue<A> m_writes;
+
+    // cells loaded by prefetch() that have not been requested by get() yet
+    private final ConcurrentHashMap<Long, Cell<A>> m_prefetched = new ConcurrentHashMap<>();
+
+    // the cells removed from the in-memory cache while each running prefetch() loads its batch
+    private final CopyOnWriteArrayList<Set<Long>> m_prefetchRemovals = new CopyOnWriteArrayList<>();
+
+    // runs the reads of getAll() if there is no m_io
+    private BlockIoExecutor m_batchIo;
+
+    private final N5CellCacheStatistics m_statistics = new N5CellCacheStatistics();
+
+    // records requests and removals, or null
+    private final AccessTraceRecorder m_trace;
+
+    // counts the events per cell, or null
+    private final CellAccessProfile m_profile;
+
+    /**
+     * The name of the dataset attribute holding the indices of the cells that
+     * were in memory when the cache was closed, most recently loaded first.
+     */
+    public static final String HOT_SET_ATTRIBUTE = "hotSet";
+
+    /**
+     * The name of the dataset attribute holding the
+     * {@link N5CachedCellImgOptions#fingerprint(String) fingerprint} of the
+     * computation that produced the cells.
+     */
+    public static final String FINGERPRINT_ATTRIBUTE = "computationFingerprint";
+
+    // cells handed to the in-memory cache and not removed yet, in access order, or null if no hot set is recorded
+    private final LinkedHashMap<Long, WeakReference<Cell<A>>> m_resident;
+
+    // the hot set stored by the previous session, truncated to what fits into the in-memory cache
+    private final long[] m_storedHotSet;
+
+    // nanoseconds the backing loader took for the cells it computed, or null if every cell is written
+    private final ConcurrentHashMap<Long, Long> m_loadNanos;
 
     /**
      * @param cellgrid
@@ -127,10 +268,62 @@ public class N5CellCache<T extends NativeType<T>, A extends ArrayDataAccess<A>>
             final AccessIo<A> accessIo,
             final Compression compression, 
             final T type) throws IOException {
+        this(resultCacheLocation, grid, backingLoader, entitiesPerPixel, accessIo, type,
+                N5CachedCellImgOptions.options().datasetName(datasetName).compression(compression).values());
+    }
+
+    /**
+     * Creates a {@link N5CellCache} that caches results to the given location, configured by the given
+     * {@link N5CachedCellImgOptions}. If the N5 file and dataset already exist with matching block size, the cache
+     * will use the blocks that are already stored there.
+     *
+     * @param resultCacheLocation the path to the location where this cache will
+     *                            store its cells
+     * @param grid                the cell grid of the tensor
+     * @param backingLoader       the loader backing this cache
+     * @param entitiesPerPixel
+     * @param accessIo
+     * @param type
+     * @param options             the options providing dataset name, compression etc.
+     * @throws IOException
+     */
+    public N5CellCache(
+            final Path resultCacheLocation,
+            final CellGrid grid,
+            final CacheLoader<Long, Cell<A>> backingLoader,
+            final Fraction entitiesPerPixel,
+            final AccessIo<A> accessIo,
+            final T type,
+            final N5CachedCellImgOptions.Values options) throws IOException {
+        final String datasetName = datasetName(options.datasetName(), options.fingerprint());
+        // sub-chunks are compressed by the codec
+        final Compression compression = options.compressionChunkSize() > 0 ? new RawCompression()
+                : options.compression();
         m_grid = grid;
         m_backingLoader = backingLoader;
         m_entitiesPerPixel = entitiesPerPixel;
-        m_type = type;
+        m_accessIo = accessIo;
+        m_bulkIo = new BulkAccessIo<>(accessIo);
+        if (options.sparse()) {
+            m_sparseAccessClass = accessIo.load(ByteBuffer.allocate(0), 0).getClass();
+            if (!SparseAccesses.isSupported(m_sparseAccessClass)) {
+                throw new IllegalArgumentException("Sparse cells require dirty accesses of an integer type, not "
+                        + m_sparseAccessClass.getSimpleName());
+            }
+        } else {
+            m_sparseAccessClass = null;
+        }
+        if (options.appendable() && entitiesPerPixel.getNumerator() % entitiesPerPixel.getDenominator() != 0
+                && type.getNativeTypeFactory().getPrimitiveType() != PrimitiveType.LONG) {
+            // the pixels of a partial entity can only be merged bit by bit in longs
+            throw new IllegalArgumentException("Appendable images of packed types must be stored in longs, not "
+                    + type.getNativeTypeFactory().getPrimitiveType());
+        }
+        if (options.offHeapPolicy() == OffHeapPolicy.TINY_LFU && options.offHeapCacheSize() <= 0
+                && options.memoryBudget() == null) {
+            throw new IllegalArgumentException(
+                    "The TINY_LFU policy applies to the off-heap tier, which requires an off-heap cache size or a memory budget");
+        }
 
         final String datasetLoc = resultCacheLocation.toAbsolutePath().toString();
         m_dataset = datasetName;
@@ -140,14 +333,27 @@ public class N5CellCache<T extends NativeType<T>, A extends ArrayDataAccess<A>>
         final int[] cellDims = new int[m_grid.numDimensions()];
         m_grid.cellDimensions(cellDims);
 
-        final DataType dataType = N5Utils.dataType(type);
-        m_creator = ArrayDataAccessFactory.get(type);
+        m_codec = codec(type, accessIo, options);
+        final DataType dataType = m_codec == null ? dataType(type, entitiesPerPixel) : DataType.UINT8;
+
+        m_remote = options.n5Writer() != null;
+        final int maxConcurrentIo = options.maxConcurrentIo() == 0 && m_remote ? DEFAULT_REMOTE_CONCURRENT_IO
+                : options.maxConcurrentIo();
+        m_io = maxConcurrentIo > 0
+                ? new BlockIoExecutor(options.ioExecutor(), maxConcurrentIo, options.readPriority(),
+                        options.maxWriteDelay(), options.minWriteShare())
+                : null;
+        m_writes = new CellWriteQueue<>(m_io, m_bulkIo, this::storeSerialized);
 
         // Init the reader & writer
-        final N5FSWriter fswriter = new N5FSWriter(datasetLoc);
-        if (fswriter.datasetExists(m_dataset)) {
+        final N5Writer writer = m_remote ? options.n5Writer() : new N5FSWriter(datasetLoc);
+        final boolean durable = options.durability() == Durability.DURABLE && !m_remote;
+        final Path manifest = m_remote ? null : Paths.get(datasetLoc, m_dataset + DurableBlockStore.MANIFEST_SUFFIX);
+        boolean presenceUnknown = false;
+        boolean grown = false;
+        if (writer.datasetExists(m_dataset)) {
             // check that dataset properties match!
-            final DatasetAttributes datasetAttribs = fswriter.getDatasetAttributes(m_dataset);
+            final DatasetAttributes datasetAttribs = writer.getDatasetAttributes(m_dataset);
             if (datasetAttribs.getDataType() != dataType) {
                 throw new IOException("Cache dataset exists already, but data types don't match");
             }
@@ -155,30 +361,289 @@ public class N5CellCache<T extends NativeType<T>, A extends ArrayDataAccess<A>>
                 throw new IOException("Cache dataset exists already, but num dimensions doesn't match");
             }
             if (!Arrays.equals(datasetAttribs.getDimensions(), imgDims)) {
-                throw new IOException("Cache dataset exists already, but image size doesn't match");
+                if (!options.appendable() || !grownAlongLastDimension(datasetAttribs.getDimensions(), imgDims)) {
+                    throw new IOException("Cache dataset exists already, but image size doesn't match");
+                }
+                grown = true;
             }
             if (!Arrays.equals(datasetAttribs.getBlockSize(), cellDims)) {
                 throw new IOException("Cache dataset exists already, but block size doesn't match");
             }
+            final String encoding = writer.getAttribute(m_dataset, BlockCodec.ENCODING_ATTRIBUTE, String.class);
+            if (!Objects.equals(encoding, m_codec == null ? null : m_codec.name())) {
+                throw new IOException("Cache dataset exists already, but encodings don't match");
+            }
+            final String fingerprint = writer.getAttribute(m_dataset, FINGERPRINT_ATTRIBUTE, String.class);
+            if (options.fingerprint() != null && !options.fingerprint().equals(fingerprint)) {
+                throw new IOException("Cache dataset exists already, but computation fingerprints don't match");
+            }
 
-            N5CellCache.forEachPresentBlockIdx(datasetLoc, m_dataset, m_grid, m_cachedSet::add);
+            if (m_remote) {
+                // listing an object store is slow, the present cells are taken from the manifest instead
+                final long[] runs = writer.getAttribute(m_dataset, PRESENT_CELLS_ATTRIBUTE, long[].class);
+                if (runs == null) {
+                    presenceUnknown = true;
+                } else {
+                    for (int i = 0; i + 1 < runs.length; i += 2) {
+                        for (long key = runs[i]; key < runs[i] + runs[i + 1]; ++key) {
+                            m_cachedSet.add(key);
+                        }
+                    }
+                }
+            } else if (durable && Files.exists(manifest)) {
+                // the manifest lists the complete blocks, they need not be probed
+                m_cachedSet.addAll(DurableBlockStore.readManifest(manifest));
+            } else if (m_io == null) {
+                N5CellCache.forEachPresentBlockIdx(datasetLoc, m_dataset, m_grid, m_cachedSet::add);
+            } else {
+                N5CellCache.forEachPresentBlockIdx(datasetLoc, m_dataset, m_grid, m_cachedSet::add, m_io);
+            }
         } else {
-            fswriter.createDataset(m_dataset, imgDims, cellDims, dataType, compression);
+            writer.createDataset(m_dataset, imgDims, cellDims, dataType, compression);
+            if (m_codec != null) {
+                writer.setAttribute(m_dataset, BlockCodec.ENCODING_ATTRIBUTE, m_codec.name());
+            }
+            if (options.fingerprint() != null) {
+                writer.setAttribute(m_dataset, FINGERPRINT_ATTRIBUTE, options.fingerprint());
+            }
         }
-        m_writer = fswriter;
-        m_reader = new N5FSReader(datasetLoc);
-
-        m_attributes = m_writer.getDatasetAttributes(m_dataset);
-        final int[] blockSize = m_attributes.getBlockSize();
+        m_presenceUnknown = presenceUnknown;
+        m_blockRoot = m_remote ? null : Paths.get(datasetLoc, m_dataset);
+        m_appendable = options.appendable();
+        m_writer = writer;
+        if (grown) {
+            // existing blocks stay valid, as the last dimension varies slowest in the cell indices
+            m_writer.setAttribute(m_dataset, "dimensions", imgDims);
+        }
+        m_reader = m_remote ? writer : new N5FSReader(datasetLoc);
 
         // init the IO
-        m_loader = new N5CellLoader<>(m_reader, m_dataset, blockSize);
-        m_storer = new N5CellStorer<>(m_writer, m_dataset, cellDims, accessIo, m_entitiesPerPixel);
+        if (durable) {
+            m_durableStore = new DurableBlockStore(m_blockRoot, manifest, m_grid.getGridDimensions(), m_cachedSet);
+        } else {
+            m_durableStore = null;
+            if (manifest != null) {
+                // blocks written without the manifest would not be listed by it
+                Files.deleteIfExists(manifest);
+            }
+        }
+        m_storer = new N5CellStorer<>(m_writer, m_dataset, cellDims, accessIo, m_entitiesPerPixel, m_codec,
+                m_durableStore);
+
+        final CellMemoryBudget budget = options.memoryBudget();
+        if (options.offHeapCacheSize() > 0 || budget != null) {
+            // a shared budget also bounds the store, the own capacity is the whole budget unless limited
+            final long capacity = options.offHeapCacheSize() > 0 ? options.offHeapCacheSize() : budget.capacity();
+            FrequencySketch sketch = null;
+            if (options.offHeapPolicy() == OffHeapPolicy.TINY_LFU) {
+                final long cellBytes = m_entitiesPerPixel.mulCeil(Intervals.numElements(cellDims))
+                        * accessIo.getBytesPerElement();
+                sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, capacity / Math.max(1, cellBytes)));
+            }
+            m_offHeapStore = new OffHeapCellStore<>(capacity, accessIo, sketch, budget);
+            if (budget != null) {
+                // cells evicted on behalf of other images are written by this one
+                m_offHeapStore.setEvictionHandler(this::writeVictim);
+            }
+        } else {
+            m_offHeapStore = null;
+        }
+
+        m_trace = options.accessTrace() != null ? new AccessTraceRecorder(options.accessTrace(), m_grid) : null;
+        m_profile = options.accessProfile() ? new CellAccessProfile(m_grid) : null;
+
+        m_loadNanos = options.persistencePolicy() == PersistencePolicy.COST_AWARE ? new ConcurrentHashMap<>() : null;
+        m_cellReader = cellReader(m_grid);
+
+        if (options.warmRestart()) {
+            m_resident = new LinkedHashMap<>(16, 0.75f, true);
+            final long[] hotSet = m_writer.getAttribute(m_dataset, HOT_SET_ATTRIBUTE, long[].class);
+            final long maxSize = options.cacheType() == CacheType.BOUNDED ? options.maxCacheSize() : Long.MAX_VALUE;
+            m_storedHotSet = hotSet == null ? new long[0] : Arrays.copyOf(hotSet, (int) Math.min(hotSet.length, maxSize));
+        } else {
+            m_resident = null;
+            m_storedHotSet = new long[0];
+        }
+
+        if (budget != null && options.maxCacheBytes() > 0) {
+            // the heap cells are not accounted by the budget, their bound is reserved instead
+            try {
+                budget.reserve(options.maxCacheBytes());
+            } catch (final IllegalArgumentException e) {
+                try {
+                    close();
+                } catch (final IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+            m_reservingBudget = budget;
+            m_reservedBytes = options.maxCacheBytes();
+        }
+    }
+
+    private N5CellReader<A> cellReader(final CellGrid grid) throws IOException {
+        return new N5CellReader<>(m_reader, m_dataset, m_writer.getDatasetAttributes(m_dataset), grid,
+                m_entitiesPerPixel, m_accessIo, m_codec, m_appendable, m_cachedSet, m_presenceUnknown,
+                this::loadAbsent, m_statistics, m_profile);
+    }
+
+    /**
+     * Determines the N5 {@link DataType} used to store cells of the given type.
+     * <p>
+     * Types with one entity per pixel use the mapping of {@link N5Utils}, such
+     * that the cached dataset can be opened by other N5 tools. Packed types like
+     * {@code BitType}, which have no N5 equivalent, are stored as their
+     * underlying primitive entities.
+     * </p>
+     *
+     * @param type the pixel type
+     * @param entitiesPerPixel the number of access entities per pixel
+     * @return the N5 data type of the blocks
+     * @throws IOException if the access type of {@code type} can not be stored
+     */
+    protected static DataType dataType(final NativeType<?> type, final Fraction entitiesPerPixel)
+            throws IOException {
+        if (entitiesPerPixel.getNumerator() == entitiesPerPixel.getDenominator()) {
+            @SuppressWarnings({ "rawtypes", "unchecked" })
+            final DataType dataType = N5Utils.dataType((NativeType)type);
+            if (dataType != null) {
+                return dataType;
+            }
+        }
+
+        final PrimitiveType primitiveType = type.getNativeTypeFactory().getPrimitiveType();
+        switch (primitiveType) {
+            case BYTE:
+                return DataType.INT8;
+            case SHORT:
+                return DataType.INT16;
+            case INT:
+                return DataType.INT32;
+            case LONG:
+                return DataType.INT64;
+            case FLOAT:
+                return DataType.FLOAT32;
+            case DOUBLE:
+                return DataType.FLOAT64;
+            default:
+                throw new IOException("Cannot store cells of type " + type.getClass().getSimpleName()
+                        + " with " + primitiveType + " access in N5");
+        }
+    }
+
+    private static boolean grownAlongLastDimension(final long[] storedDims, final long[] imgDims) {
+        final int last = imgDims.length - 1;
+        return Arrays.equals(Arrays.copyOf(storedDims, last), Arrays.copyOf(imgDims, last))
+                && storedDims[last] < imgDims[last];
+    }
+
+    /**
+     * Determines the dataset caching the cells of a computation. Computations
+     * with different fingerprints use different datasets, such that a dataset
+     * is only reused by a computation with the same fingerprint.
+     *
+     * @param datasetName the configured dataset name
+     * @param fingerprint the fingerprint of the computation, or {@code null}
+     * @return the dataset name suffixed by a hash of the fingerprint, or the
+     *         dataset name if there is no fingerprint
+     */
+    public static String datasetName(final String datasetName, final String fingerprint) {
+        if (fingerprint == null) {
+            return datasetName;
+        }
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(fingerprint.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder name = new StringBuilder(datasetName).append('-');
+            for (int i = 0; i < 8; ++i) {
+                name.append(String.format("%02x", digest[i]));
+            }
+            return name.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Determines the {@link BlockCodec} applied to the serialized cells before
+     * they are written, if any.
+     *
+     * @param type the pixel type
+     * @param accessIo serializes the cells
+     * @param options the options of the cache
+     * @return the codec, or {@code null} if cells are stored as they are
+     */
+    protected static BlockCodec codec(final NativeType<?> type, final AccessIo<?> accessIo,
+            final N5CachedCellImgOptions.Values options) {
+        BlockCodec codec = null;
+        int elementSize = accessIo.getBytesPerElement();
+
+        final PrimitiveType primitiveType = type.getNativeTypeFactory().getPrimitiveType();
+        final boolean floatingPoint = primitiveType == PrimitiveType.FLOAT || primitiveType == PrimitiveType.DOUBLE;
+        if (floatingPoint && options.floatEncoding() != FloatEncoding.FULL) {
+            final QuantizingCodec quantizing = new QuantizingCodec(options.floatEncoding(),
+                    primitiveType == PrimitiveType.DOUBLE);
+            codec = quantizing;
+            elementSize = quantizing.encodedBytesPerEntity();
+        }
+
+        // byte shuffling single bytes does not change anything
+        if (options.shuffle() == Shuffle.BIT || options.shuffle() == Shuffle.BYTE && elementSize > 1) {
+            final ShuffleCodec shuffle = new ShuffleCodec(options.shuffle(), elementSize);
+            codec = codec == null ? shuffle : codec.andThen(shuffle);
+        }
+
+        if (options.compressionChunkSize() > 0) {
+            final ChunkedDeflateCodec chunked = new ChunkedDeflateCodec(options.compressionChunkSize(),
+                    Deflater.DEFAULT_COMPRESSION);
+            codec = codec == null ? chunked : codec.andThen(chunked);
+        }
+        return codec;
     }
 
     protected static void forEachPresentBlockIdx(final String filename, final String dataset, final CellGrid grid,
             final Consumer<Long> func) throws IOException {
-        Files.walkFileTree(Paths.get(filename, dataset), new SimpleFileVisitor<Path>() {
+        forEachPresentBlockIdx(Paths.get(filename, dataset), grid, func);
+    }
+
+    /**
+     * Probes the presence of blocks concurrently, walking the subdirectory of
+     * every position along the first dimension as a separate read of the given
+     * {@link BlockIoExecutor}. {@code func} must be thread-safe.
+     */
+    protected static void forEachPresentBlockIdx(final String filename, final String dataset, final CellGrid grid,
+            final Consumer<Long> func, final BlockIoExecutor io) throws IOException {
+        if (grid.numDimensions() < 2) {
+            // blocks are files directly in the dataset directory
+            forEachPresentBlockIdx(filename, dataset, grid, func);
+            return;
+        }
+        final List<CompletableFuture<Void>> walks = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(Paths.get(filename, dataset))) {
+            for (final Path child : children) {
+                if (Files.isDirectory(child)) {
+                    walks.add(io.submitRead(() -> {
+                        forEachPresentBlockIdx(child, grid, func);
+                        return null;
+                    }));
+                }
+            }
+        }
+        try {
+            CompletableFuture.allOf(walks.toArray(new CompletableFuture[walks.size()])).join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static void forEachPresentBlockIdx(final Path root, final CellGrid grid, final Consumer<Long> func)
+            throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
                 final String pattern = Pattern.quote(System.getProperty("file.separator"));
@@ -188,6 +653,10 @@ public class N5CellCache<T extends NativeType<T>, A extends ArrayDataAccess<A>>
                     // skip the attributes.json file
                     return FileVisitResult.CONTINUE;
                 }
+                if (cellPath[cellPath.length - 1].startsWith(".")) {
+                    // skip temporary files of blocks that were never published
+                    return FileVisitResult.CONTINUE;
+                }
 
                 final int n = grid.numDimensions();
                 final long[] pos = new long[n];
@@ -202,55 +671,827 @@ public class N5CellCache<T extends NativeType<T>, A extends ArrayDataAccess<A>>
 
     @Override
     public Cell<A> get(final Long key) throws Exception {
-        // Look at n5 reader
         final long index = key;
+        m_statistics.request();
+        if (m_trace != null) {
+            m_trace.get(index);
+        }
+        if (m_profile != null) {
+            m_profile.count(CellAccessProfile.Counter.MISSES, index);
+        }
+        if (m_offHeapStore != null) {
+            m_offHeapStore.recordAccess(index);
+        }
+
+        final Cell<A> cell = load(index);
+        if (m_resident != null) {
+            synchronized (m_resident) {
+                m_resident.put(key, new WeakReference<>(cell));
+            }
+        }
+        return cell;
+    }
+
+    private Cell<A> load(final Long key) throws Exception {
+        final long index = key;
+
+        // cell was loaded by prefetch()
+        final Cell<A> prefetched = m_prefetched.remove(key);
+        if (prefetched != null) {
+            if (m_offHeapStore != null) {
+                // the cell may have been copied from the off-heap tier, where it must not stay behind as an older
+                // version, which would be written over the newer one when it is evicted from there
+                m_offHeapStore.discard(index);
+            }
+            return prefetched;
+        }
+
+        // cell was evicted to the off-heap tier
+        if (m_offHeapStore != null) {
+            final Cell<A> cell = m_offHeapStore.remove(index);
+            if (cell != null) {
+                m_statistics.offHeapHit();
+                if (m_profile != null) {
+                    m_profile.count(CellAccessProfile.Counter.OFF_HEAP_HITS, index);
+                }
+                return cell;
+            }
+        }
+
+        // cell is still being written
+        final Cell<A> pending = m_writes.pending(index);
+        if (pending != null) {
+            return pending;
+        }
 
         // cell is already cached
-        if (m_cachedSet.contains(key)) {
-            final long[] cellMin = new long[m_grid.numDimensions()];
-            final int[] cellDims = new int[m_grid.numDimensions()];
-            m_grid.getCellDimensions(index, cellMin, cellDims);
-
-            final long numEntities = m_entitiesPerPixel.mulCeil(Intervals.numElements(cellDims));
-            final A array = m_creator.createArray((int) numEntities);
-            
-            @SuppressWarnings( { "rawtypes", "unchecked" } )
-            final SingleCellArrayImg<T, A> img = new SingleCellArrayImg(cellDims, cellMin, array, new AlwaysClean());
-            @SuppressWarnings( "unchecked" )
-            final NativeTypeFactory<T, A> info = (NativeTypeFactory<T, A>) m_type.getNativeTypeFactory();
-            img.setLinkedType(info.createLinkedType(img));
-            m_loader.load(img);
-            return new Cell<>(cellDims, cellMin, array);
+        if (mayBePresent(key)) {
+            final N5CellReader<A> reader = m_cellReader;
+            final Cell<A> cell = m_io == null ? reader.read(index) : m_io.read(() -> reader.read(index));
+            if (cell != null) {
+                return cell;
+            }
         }
         // fall back on backing loader
-        return m_backingLoader.get(key);
+        return loadAbsent(index);
+    }
+
+    // gets a cell that is not present in N5
+    private Cell<A> loadAbsent(final long index) throws Exception {
+        if (m_sparseAccessClass == null) {
+            return loadFromBackingLoader(index);
+        }
+        final long[] cellMin = new long[m_grid.numDimensions()];
+        final int[] cellDims = new int[m_grid.numDimensions()];
+        m_grid.getCellDimensions(index, cellMin, cellDims);
+        final int numEntities = (int) m_entitiesPerPixel.mulCeil(Intervals.numElements(cellDims));
+        @SuppressWarnings("unchecked")
+        final A fill = (A) SparseAccesses.fill(m_sparseAccessClass, numEntities);
+        return new Cell<>(cellDims, cellMin, fill);
+    }
+
+    private static boolean isFill(final Cell<?> cell) {
+        return cell.getData() instanceof SparseAccesses.Fill && ((SparseAccesses.Fill) cell.getData()).isFill();
+    }
+
+    private Cell<A> loadFromBackingLoader(final long index) throws Exception {
+        final long start = System.nanoTime();
+        final Cell<A> cell = m_backingLoader.get(index);
+        final long nanos = System.nanoTime() - start;
+        m_statistics.loaderCall(nanos);
+        if (m_profile != null) {
+            m_profile.count(CellAccessProfile.Counter.COMPUTATIONS, index);
+        }
+        if (m_loadNanos != null && cell.getData() instanceof Dirty) {
+            m_loadNanos.put(index, nanos);
+            // filling the cell marked it dirty, a clean copy tells whether it is modified before its eviction
+            return cleanCopy(cell);
+        }
+        return cell;
+    }
+
+    private Cell<A> cleanCopy(final Cell<A> cell) {
+        final int numEntities = (int) m_entitiesPerPixel.mulCeil(cell.size());
+        final A copy = cell.getData().createArray(numEntities);
+        System.arraycopy(cell.getData().getCurrentStorageArray(), 0, copy.getCurrentStorageArray(), 0, numEntities);
+        final int[] dims = new int[cell.numDimensions()];
+        cell.dimensions(dims);
+        return new Cell<>(dims, Intervals.minAsLongArray(cell), copy);
+    }
+
+    /**
+     * Gets several cells at once. N5 blocks are read concurrently in the order
+     * in which they are laid out in the N5 container and decoded in parallel;
+     * cells that are not present in N5 are obtained from the backing loader in
+     * parallel.
+     * <p>
+     * The cells are not handed to the in-memory cache, hence cells computed by
+     * the backing loader are not persisted. Use {@link #prefetch(Collection)} to
+     * load cells for the in-memory cache.
+     * </p>
+     *
+     * @param keys the cell indices
+     * @return the cells by index, in on-disk order
+     * @throws Exception if reading or loading a cell fails
+     */
+    public Map<Long, Cell<A>> getAll(final Collection<Long> keys) throws Exception {
+        final List<Long> sorted = new ArrayList<>(new LinkedHashSet<>(keys));
+        sorted.sort(Comparator.comparingLong(m_cellReader::onDiskOrder));
+
+        final BlockIoExecutor io = batchIo();
+        final Map<Long, CompletableFuture<Cell<A>>> futures = new LinkedHashMap<>();
+        for (final Long key : sorted) {
+            futures.put(key, fetch(key, io));
+        }
+
+        final Map<Long, Cell<A>> cells = new LinkedHashMap<>();
+        for (final Map.Entry<Long, CompletableFuture<Cell<A>>> future : futures.entrySet()) {
+            cells.put(future.getKey(), join(future.getValue()));
+        }
+        return cells;
+    }
+
+    /**
+     * Passes cells to {@code action} one after another without handing them to
+     * the in-memory cache, e.g. for a full-volume scan that should not evict
+     * the working set. Cells are read from N5, or computed by the backing
+     * loader, up to {@code readAhead} cells ahead of the cell passed to
+     * {@code action}, and are dropped afterwards. Cells computed by the
+     * backing loader are not persisted, and modifications of the passed cells
+     * are lost unless they are in memory.
+     *
+     * @param keys the cell indices, in the order in which the cells are passed
+     *            to {@code action}
+     * @param readAhead the number of cells loaded ahead
+     * @param resident provides the in-memory version of a cell, or
+     *            {@code null} if the cell is not in memory
+     * @param action the action
+     * @throws Exception if reading or loading a cell fails
+     */
+    public void stream(final List<Long> keys, final int readAhead, final Function<Long, Cell<A>> resident,
+            final Consumer<? super Cell<A>> action) throws Exception {
+        final BlockIoExecutor io = batchIo();
+        final ArrayDeque<CompletableFuture<Cell<A>>> window = new ArrayDeque<>();
+        int next = 0;
+        for (int i = 0; i < keys.size(); ++i) {
+            for (; next < keys.size() && next <= i + readAhead; ++next) {
+                final Long key = keys.get(next);
+                final Cell<A> cell = resident.apply(key);
+                window.add(cell != null ? CompletableFuture.completedFuture(cell) : fetch(key, io));
+            }
+            action.accept(join(window.poll()));
+        }
+    }
+
+    /**
+     * Writes cells to N5 without handing them to the in-memory cache, e.g. to
+     * precompute a cached result. The cells are processed in parallel on
+     * {@code pool}: the in-memory or off-heap version of a cell is written if
+     * there is one, otherwise the cell is computed by the backing loader.
+     * Empty cells of a {@link N5CachedCellImgOptions#sparse(boolean) sparse}
+     * image are not written.
+     * <p>
+     * With {@code missingOnly}, cells that are present in N5 are skipped, such
+     * that an interrupted materialization resumes where it stopped. For a
+     * container that is not stored locally, the present cells are recorded in
+     * the {@link #PRESENT_CELLS_ATTRIBUTE} afterwards, also if a cell failed.
+     * </p>
+     *
+     * @param keys the cell indices
+     * @param missingOnly whether cells that are present in N5 are skipped
+     * @param resident provides the in-memory version of a cell, or
+     *            {@code null} if the cell is not in memory
+     * @param pool the pool computing and writing the cells
+     * @param progress receives the number of cells done, or {@code null}
+     * @return the number of cells written
+     * @throws Exception if loading or writing a cell fails
+     */
+    public long materialize(final List<Long> keys, final boolean missingOnly, final Function<Long, Cell<A>> resident,
+            final ForkJoinPool pool, final MaterializationProgress progress) throws Exception {
+        final AtomicLong done = new AtomicLong();
+        final AtomicLong written = new AtomicLong();
+        try {
+            // a parallel stream started from within the pool runs on its workers
+            pool.submit(() -> keys.parallelStream().forEach(key -> {
+                if (!missingOnly || !isPresent(key)) {
+                    try {
+                        if (materialize(key, resident)) {
+                            written.incrementAndGet();
+                        }
+                    } catch (final Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }
+                final long count = done.incrementAndGet();
+                if (progress != null) {
+                    progress.progress(count, keys.size());
+                }
+            })).get();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } finally {
+            if (m_remote) {
+                writePresentCells();
+            }
+        }
+        return written.get();
+    }
+
+    // returns false for a cell of a sparse image that is empty or already present, which is not written
+    private boolean materialize(final long key, final Function<Long, Cell<A>> resident) throws Exception {
+        Cell<A> cell = resident.apply(key);
+        if (cell == null && m_offHeapStore != null) {
+            cell = m_offHeapStore.copy(key);
+        }
+        if (cell == null) {
+            if (m_sparseAccessClass != null && isPresent(key)) {
+                // the block is the only source of a cell of a sparse image
+                return false;
+            }
+            cell = loadAbsent(key);
+        }
+        if (isFill(cell)) {
+            return false;
+        }
+        final int numEntities = (int) m_entitiesPerPixel.mulCeil(cell.size());
+        final long start = System.nanoTime();
+        m_storer.store(cell);
+        markPresent(key);
+        m_statistics.n5Write((long) numEntities * m_accessIo.getBytesPerElement(), System.nanoTime() - start);
+        if (m_loadNanos != null) {
+            m_loadNanos.remove(key);
+        }
+        return true;
+    }
+
+    private static <R> R join(final CompletableFuture<R> future) throws Exception {
+        try {
+            return future.join();
+        } catch (final CompletionException e) {
+            final Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Loads several cells with {@link #getAll(Collection)}, such that
+     * subsequent calls of {@link #get(Long)} for these cells, e.g. by the
+     * in-memory cache, return immediately. Prefetched cells that are evicted
+     * in the meantime are dropped.
+     *
+     * @param keys the cell indices
+     * @throws Exception if reading or loading a cell fails
+     */
+    public void prefetch(final Collection<Long> keys) throws Exception {
+        keepPrefetched(() -> getAll(keys));
+    }
+
+    /**
+     * Reads a cell from N5 as a background read of the I/O executor, which is
+     * only dispatched while no other block I/O is queued, and keeps it for the
+     * next {@link #get(Long)}, like {@link #prefetch(Collection)}. This is
+     * meant for loading cells ahead of demand, e.g. for a warm restart, without
+     * delaying the cells that are requested meanwhile. Cells that are in the
+     * off-heap tier or being written are not read, as {@link #get(Long)} gets
+     * their newer version from memory.
+     *
+     * @param key the cell index
+     * @throws Exception if reading the cell fails
+     */
+    void prefetchInBackground(final long key) throws Exception {
+        keepPrefetched(() -> {
+            if (m_prefetched.containsKey(key) || m_writes.isPending(key)
+                    || m_offHeapStore != null && m_offHeapStore.contains(key) || !mayBePresent(key)) {
+                return Collections.emptyMap();
+            }
+            final N5CellReader<A> reader = m_cellReader;
+            final DataBlock<?> block = batchIo().backgroundRead(() -> reader.readBlock(key));
+            return block == null ? Collections.emptyMap() : Collections.singletonMap(key, reader.decode(key, block));
+        });
+    }
+
+    // keeps loaded cells for get(), except those removed from the in-memory cache meanwhile
+    private void keepPrefetched(final Callable<Map<Long, Cell<A>>> load) throws Exception {
+        final Set<Long> removed = ConcurrentHashMap.newKeySet();
+        m_prefetchRemovals.add(removed);
+        try {
+            for (final Map.Entry<Long, Cell<A>> cell : load.call().entrySet()) {
+                final Long key = cell.getKey();
+                m_prefetched.put(key, cell.getValue());
+                // a cell removed meanwhile may have been modified, hence the copy loaded before is stale; a removal
+                // after this check drops the copy from m_prefetched itself
+                if (removed.contains(key)) {
+                    m_prefetched.remove(key, cell.getValue());
+                }
+            }
+        } finally {
+            m_prefetchRemovals.removeIf(r -> r == removed);
+        }
+    }
+
+    /**
+     * Drops cells that were loaded by {@link #prefetch(Collection)} but have not
+     * been requested.
+     *
+     * @param keys the cell indices
+     */
+    public void releasePrefetched(final Collection<Long> keys) {
+        keys.forEach(m_prefetched::remove);
+    }
+
+    private CompletableFuture<Cell<A>> fetch(final long index, final BlockIoExecutor io) {
+        final Cell<A> prefetched = m_prefetched.get(index);
+        if (prefetched != null) {
+            return CompletableFuture.completedFuture(prefetched);
+        }
+        if (m_offHeapStore != null) {
+            final Cell<A> cell = m_offHeapStore.copy(index);
+            if (cell != null) {
+                return CompletableFuture.completedFuture(cell);
+            }
+        }
+        final Cell<A> pending = m_writes.pending(index);
+        if (pending != null) {
+            return CompletableFuture.completedFuture(pending);
+        }
+
+        final CompletableFuture<Cell<A>> read;
+        if (mayBePresent(index)) {
+            final N5CellReader<A> reader = m_cellReader;
+            read = io.submitRead(() -> reader.readBlock(index))
+                    .thenApplyAsync(block -> block == null ? null : reader.decode(index, block),
+                            ForkJoinPool.commonPool());
+        } else {
+            read = CompletableFuture.completedFuture(null);
+        }
+        return read.thenCompose(cell -> cell != null
+                ? CompletableFuture.completedFuture(cell)
+                : CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return loadAbsent(index);
+                    } catch (final Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, ForkJoinPool.commonPool()));
+    }
+
+    private synchronized BlockIoExecutor batchIo() {
+        if (m_io != null) {
+            return m_io;
+        }
+        if (m_batchIo == null) {
+            m_batchIo = new BlockIoExecutor(null, Runtime.getRuntime().availableProcessors());
+        }
+        return m_batchIo;
     }
 
     @Override
     public void onRemoval(final Long key, final Cell<A> value) {
+        m_statistics.removal();
+        if (m_trace != null) {
+            m_trace.removal(key);
+        }
+        if (m_profile != null) {
+            m_profile.count(CellAccessProfile.Counter.EVICTIONS, key);
+        }
 
-        if (!m_cachedSet.contains(key)) {
-            try {
-                m_storer.store(value);
-            } catch (final IOException e) {
-                throw new IllegalStateException(e);
+        // the evicted cell is newer than a prefetched copy
+        for (final Set<Long> removed : m_prefetchRemovals) {
+            removed.add(key);
+        }
+        m_prefetched.remove(key);
+        if (m_resident != null) {
+            synchronized (m_resident) {
+                m_resident.remove(key);
             }
-            m_cachedSet.add(key);
+        }
+
+        if (isFill(value)) {
+            // an empty cell of a sparse image that was never written
+            m_writes.reportFailure();
+            return;
+        }
+
+        final int numEntities = (int) m_entitiesPerPixel.mulCeil(value.size());
+        final boolean needsWrite = shouldWrite(key, value, numEntities);
+
+        if (m_offHeapStore != null) {
+            final List<OffHeapCellStore.Entry> victims = m_offHeapStore.put(key, value, numEntities, !needsWrite);
+            if (victims != null) {
+                victims.forEach(this::writeVictim);
+                m_writes.reportFailure();
+                return;
+            }
+            // the cell is too large for the off-heap tier or was not admitted
+        }
+
+        if (needsWrite) {
+            writeCell(key, value, numEntities);
         } else {
             // ignore, have we already persisted this cell.
         }
+        m_writes.reportFailure();
     }
 
-    private class AlwaysClean implements Dirty {
+    // writes a cell evicted from the off-heap tier straight from its serialized form
+    private void writeVictim(final OffHeapCellStore.Entry victim) {
+        if (victim.isPersisted()) {
+            m_offHeapStore.evicted(victim);
+            return;
+        }
+        // copied to the heap, such that the off-heap buffer can be reused before the write runs
+        final int numBytes = victim.numEntities() * m_accessIo.getBytesPerElement();
+        final ByteBuffer data = ByteBuffer.allocate(numBytes);
+        final ByteBuffer source = victim.data();
+        source.limit(numBytes);
+        data.put(source);
+        data.rewind();
+        m_offHeapStore.evicted(victim);
+        m_writes.write(victim.key(), victim.min(), victim.dimensions(), data, victim.numEntities());
+    }
 
-        @Override
-        public boolean isDirty() {
-            return false;
+    private void writeCell(final Long key, final Cell<A> value, final int numEntities) {
+        // serialized now, as the cell may be loaded and modified again before the write runs
+        final ByteBuffer data = ByteBuffer.allocate(numEntities * m_accessIo.getBytesPerElement());
+        m_bulkIo.save(value.getData(), data, numEntities);
+        final int[] dims = new int[value.numDimensions()];
+        value.dimensions(dims);
+        m_writes.write(key, Intervals.minAsLongArray(value), dims, data, numEntities);
+    }
+
+
+    // writes a cell serialized by writeCell() or writeVictim(), called by m_writes
+    private void storeSerialized(final long key, final long[] min, final int[] dims, final ByteBuffer data)
+            throws IOException {
+        final long start = System.nanoTime();
+        m_storer.store(min, dims, data);
+        markPresent(key);
+        m_statistics.n5Write(data.capacity(), System.nanoTime() - start);
+    }
+
+    /**
+     * Whether an evicted cell is written to N5. A cell that was computed by
+     * the backing loader in this session and not modified since is subject to
+     * the {@link PersistencePolicy#COST_AWARE} policy, all other cells are
+     * written if they {@link #needsWrite(Long, Cell) need to be}.
+     */
+    private boolean shouldWrite(final Long key, final Cell<A> value, final int numEntities) {
+        if (m_loadNanos == null) {
+            return needsWrite(key, value);
+        }
+        // kept for dropped cells, which may return from the off-heap tier and be evicted again
+        final Long loadNanos = m_loadNanos.get(key);
+        if (loadNanos == null) {
+            return needsWrite(key, value);
+        }
+        if (((Dirty) value.getData()).isDirty()) {
+            // the modifications must be persisted, however cheap the cell is to compute
+            m_loadNanos.remove(key);
+            return true;
+        }
+        return worthPersisting(key, loadNanos, numEntities);
+    }
+
+    /**
+     * Applies the {@link PersistencePolicy#COST_AWARE} policy to an evicted
+     * cell that was computed and not modified since: the cell is dropped if
+     * the backing loader computed it faster than it is expected to be written
+     * and read again.
+     */
+    private boolean worthPersisting(final Long key, final long loadNanos, final int numEntities) {
+        final long bytesWritten = m_statistics.bytesWritten();
+        if (bytesWritten == 0) {
+            // the throughput is not known yet
+            m_loadNanos.remove(key);
+            return true;
+        }
+
+        final double writeNanosPerByte = (double) m_statistics.n5WriteNanos() / bytesWritten;
+        final long bytesRead = m_statistics.bytesRead();
+        // until blocks have been read, reading is assumed to be as fast as writing
+        final double readNanosPerByte = bytesRead == 0 ? writeNanosPerByte
+                : (double) m_statistics.n5ReadNanos() / bytesRead;
+        final double storageNanos = (writeNanosPerByte + readNanosPerByte) * numEntities
+                * m_accessIo.getBytesPerElement();
+        if (loadNanos > storageNanos) {
+            m_loadNanos.remove(key);
+            return true;
+        }
+        m_statistics.skippedWrite();
+        return false;
+    }
+
+    private boolean mayBePresent(final long key) {
+        return m_cachedSet.contains(key) || m_presenceUnknown && !m_invalidated.contains(key);
+    }
+
+    private void markPresent(final long key) {
+        m_cachedSet.add(key);
+        m_invalidated.remove(key);
+    }
+
+    /**
+     * Invalidates cells, e.g. because an input of the backing loader changed
+     * for a part of the image, such that they are computed again. All block
+     * writes issued so far are finished first. The cells are dropped from the
+     * prefetched cells, the off-heap tier and the present cells, and their
+     * blocks are deleted from a local container. A container that is not
+     * stored locally keeps the stale blocks, but they are no longer read and
+     * the {@link #PRESENT_CELLS_ATTRIBUTE} is updated right away.
+     * <p>
+     * The in-memory cache cannot drop single cells, hence cells that are in
+     * memory are computed again right away and their data is replaced in
+     * place. The cells must not be accessed while they are invalidated.
+     * </p>
+     *
+     * @param keys the cell indices
+     * @param resident provides the in-memory version of a cell, or
+     *            {@code null} if the cell is not in memory
+     * @throws Exception if deleting a block or computing a cell fails
+     */
+    public void invalidate(final List<Long> keys, final Function<Long, Cell<A>> resident) throws Exception {
+        // a write in flight must not recreate a deleted block
+        flush();
+
+        final long[] gridPosition = new long[m_grid.numDimensions()];
+        for (final Long key : keys) {
+            m_prefetched.remove(key);
+            if (m_offHeapStore != null) {
+                m_offHeapStore.discard(key);
+            }
+            if (m_loadNanos != null) {
+                m_loadNanos.remove(key);
+            }
+            m_invalidated.add(key);
+            if (!m_cachedSet.remove(key)) {
+                continue;
+            }
+            if (m_durableStore != null) {
+                m_durableStore.delete(key);
+            } else if (m_blockRoot != null) {
+                IntervalIndexer.indexToPosition(key, m_grid.getGridDimensions(), gridPosition);
+                Path block = m_blockRoot;
+                for (final long p : gridPosition) {
+                    block = block.resolve(Long.toString(p));
+                }
+                Files.deleteIfExists(block);
+            }
+        }
+        if (m_remote) {
+            writePresentCells();
+        }
+
+        for (final Long key : keys) {
+            final Cell<A> cell = resident.apply(key);
+            if (cell != null) {
+                final Object fresh = loadAbsent(key).getData().getCurrentStorageArray();
+                final A data = cell.getData();
+                System.arraycopy(fresh, 0, SparseAccesses.writableStorageArray(data), 0, Array.getLength(fresh));
+                // the cell is not present anymore, hence it is written on eviction
+                if (data instanceof Dirty) {
+                    ((Dirty) data).setDirty();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key the cell index
+     * @return whether the cell is present in N5
+     */
+    public boolean isPresent(final long key) {
+        return m_cachedSet.contains(key);
+    }
+
+    /**
+     * Extends the last dimension of an {@link N5CachedCellImgOptions#appendable(boolean) appendable} cache at runtime,
+     * keeping its writer, its present cells and its off-heap tier. The size attribute of the dataset is extended; the
+     * blocks are not rewritten, as the last dimension varies slowest in the cell indices. Cells at the former border
+     * are written from the off-heap tier, such that they are completed by the backing loader when they are read.
+     * <p>
+     * The in-memory cache of the former grid must have been persisted, and must not be used anymore: its border cells
+     * have the former size.
+     * </p>
+     *
+     * @param grid the grown cell grid
+     * @param backingLoader computes the cells of the grown grid
+     * @throws IOException if a write fails or the dataset attributes can not be updated
+     * @throws InterruptedException if interrupted while waiting for the writes
+     * @throws IllegalArgumentException if the cache is not appendable, or the grid does not only grow along the last
+     *             dimension
+     */
+    public void append(final CellGrid grid, final CacheLoader<Long, Cell<A>> backingLoader)
+            throws IOException, InterruptedException {
+        final CellGrid former = m_grid;
+        if (!m_appendable) {
+            throw new IllegalArgumentException("The cache is not appendable");
+        }
+        final long[] imgDims = grid.getImgDimensions();
+        final int[] cellDims = new int[grid.numDimensions()];
+        grid.cellDimensions(cellDims);
+        final int[] formerCellDims = new int[former.numDimensions()];
+        former.cellDimensions(formerCellDims);
+        if (!Arrays.equals(cellDims, formerCellDims)
+                || !grownAlongLastDimension(former.getImgDimensions(), imgDims)) {
+            throw new IllegalArgumentException("The image can only grow along its last dimension");
         }
 
-        @Override
-        public void setDirty() {
-            // NO-Op
+        final int last = imgDims.length - 1;
+        if (m_offHeapStore != null && former.imgDimension(last) % cellDims[last] != 0) {
+            // the former border cells must be read from N5 to be completed
+            final long[] gridDims = former.getGridDimensions();
+            final long rowSize = Intervals.numElements(Arrays.copyOf(gridDims, last));
+            for (long key = (gridDims[last] - 1) * rowSize; key < gridDims[last] * rowSize; ++key) {
+                final OffHeapCellStore.Entry entry = m_offHeapStore.evict(key);
+                if (entry != null) {
+                    writeVictim(entry);
+                }
+            }
         }
+        flush();
+
+        m_writer.setAttribute(m_dataset, "dimensions", imgDims);
+        m_storer = new N5CellStorer<>(m_writer, m_dataset, cellDims, m_accessIo, m_entitiesPerPixel, m_codec,
+                m_durableStore);
+        m_backingLoader = backingLoader;
+        m_grid = grid;
+        m_cellReader = cellReader(grid);
+        if (m_profile != null) {
+            m_profile.grow(grid);
+        }
+        if (m_trace != null) {
+            m_trace.grow(grid);
+        }
+    }
+
+    /**
+     * @return the indices of the cells that were in memory when the cache was
+     *         last closed, most recently loaded first and at most as many as
+     *         fit into a bounded in-memory cache, or an empty array if no hot
+     *         set was recorded or warm restarts are disabled
+     */
+    public long[] storedHotSet() {
+        return m_storedHotSet.clone();
+    }
+
+    /**
+     * Writes the cells that are still in memory and records their indices, most
+     * recently loaded first, in the {@link #HOT_SET_ATTRIBUTE}.
+     */
+    private void snapshotHotSet() throws IOException {
+        final List<Long> keys = new ArrayList<>();
+        final List<Cell<A>> cells = new ArrayList<>();
+        synchronized (m_resident) {
+            for (final Map.Entry<Long, WeakReference<Cell<A>>> entry : m_resident.entrySet()) {
+                final Cell<A> cell = entry.getValue().get();
+                if (cell != null) {
+                    keys.add(entry.getKey());
+                    cells.add(cell);
+                }
+            }
+        }
+
+        for (int i = 0; i < keys.size(); ++i) {
+            final Long key = keys.get(i);
+            final Cell<A> cell = cells.get(i);
+            final int numEntities = (int) m_entitiesPerPixel.mulCeil(cell.size());
+            if (shouldWrite(key, cell, numEntities)) {
+                writeCell(key, cell, numEntities);
+            }
+        }
+
+        final long[] hotSet = new long[keys.size()];
+        for (int i = 0; i < hotSet.length; ++i) {
+            hotSet[i] = keys.get(hotSet.length - 1 - i);
+        }
+        m_writer.setAttribute(m_dataset, HOT_SET_ATTRIBUTE, hotSet);
+    }
+
+    /**
+     * Records the cells present in N5 in the {@link #PRESENT_CELLS_ATTRIBUTE}
+     * as runs of consecutive indices.
+     */
+    private void writePresentCells() throws IOException {
+        final long[] keys = m_cachedSet.stream().mapToLong(Long::longValue).sorted().toArray();
+        final List<Long> runs = new ArrayList<>();
+        for (int i = 0; i < keys.length;) {
+            int j = i + 1;
+            while (j < keys.length && keys[j] == keys[j - 1] + 1) {
+                ++j;
+            }
+            runs.add(keys[i]);
+            runs.add((long) (j - i));
+            i = j;
+        }
+        m_writer.setAttribute(m_dataset, PRESENT_CELLS_ATTRIBUTE, runs.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    /**
+     * Waits until all asynchronous block writes issued so far have finished.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        m_writes.flush();
+    }
+
+    /**
+     * Waits until all asynchronous block writes have finished and closes the
+     * access trace, if one is recorded. For a container that is not stored
+     * locally, the present cells are recorded in the
+     * {@link #PRESENT_CELLS_ATTRIBUTE}. If
+     * {@link N5CachedCellImgOptions#warmRestart(boolean) warm restarts} are
+     * enabled, the cells that are still in memory are written and recorded as
+     * the hot set first. The cells of the off-heap tier no longer count towards
+     * a shared {@link CellMemoryBudget}, which also gets back the bytes reserved
+     * for the in-memory cache, and the I/O executors of this cache
+     * stop accepting operations.
+     *
+     * @throws IOException if a block write or closing the trace failed
+     */
+    public void close() throws IOException {
+        try {
+            if (m_resident != null) {
+                snapshotHotSet();
+            }
+            flush();
+            if (m_remote) {
+                writePresentCells();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for block writes");
+        } catch (final IllegalStateException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            if (m_offHeapStore != null) {
+                m_offHeapStore.detach();
+            }
+            synchronized (this) {
+                if (m_reservingBudget != null) {
+                    m_reservingBudget.release(m_reservedBytes);
+                    m_reservingBudget = null;
+                }
+            }
+            if (m_io != null) {
+                m_io.close();
+            }
+            synchronized (this) {
+                if (m_batchIo != null) {
+                    m_batchIo.close();
+                }
+            }
+            if (m_trace != null) {
+                m_trace.close();
+            }
+            if (m_durableStore != null) {
+                m_durableStore.close();
+            }
+        }
+    }
+
+    /**
+     * @return the request and I/O counters of this cache
+     */
+    public N5CellCacheStatistics statistics() {
+        return m_statistics;
+    }
+
+    /**
+     * @return the executor of the block I/O, e.g. to observe its queue depths, or {@code null} if I/O is done by the
+     *         calling threads
+     */
+    public BlockIoExecutor ioExecutor() {
+        return m_io;
+    }
+
+    /**
+     * @return the events counted per cell, or {@code null} if
+     *         {@link N5CachedCellImgOptions#accessProfile(boolean)} is not set
+     */
+    public CellAccessProfile accessProfile() {
+        return m_profile;
+    }
+
+    /**
+     * @return the recorder of the access trace, e.g. to check whether writing
+     *         the trace failed, or {@code null} if
+     *         {@link N5CachedCellImgOptions#accessTrace(Path)} is not set
+     */
+    public AccessTraceRecorder accessTrace() {
+        return m_trace;
+    }
+
+    /**
+     * Whether an evicted cell needs to be written to N5. By default, every cell
+     * is written once.
+     *
+     * @param key   the cell index
+     * @param value the evicted cell
+     * @return {@code true} if the data of the cell is not present in N5 yet
+     */
+    protected boolean needsWrite(final Long key, final Cell<A> value) {
+        return !m_cachedSet.contains(key);
     }
 }
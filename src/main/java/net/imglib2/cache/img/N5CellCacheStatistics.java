@@ -0,0 +1,165 @@
+package net.imglib2.cache.img;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the requests served by a {@link N5CellCache}. All requests that
+ * reach the {@link N5CellCache} are misses of the in-memory cache in front of
+ * it. Byte counts refer to the uncompressed cell data.
+ */
+public class N5CellCacheStatistics {
+
+    private final LongAdder m_requests = new LongAdder();
+
+    private final LongAdder m_offHeapHits = new LongAdder();
+
+    private final LongAdder m_n5Reads = new LongAdder();
+
+    private final LongAdder m_bytesRead = new LongAdder();
+
+    private final LongAdder m_loaderCalls = new LongAdder();
+
+    private final LongAdder m_removals = new LongAdder();
+
+    private final LongAdder m_n5Writes = new LongAdder();
+
+    private final LongAdder m_bytesWritten = new LongAdder();
+
+    private final LongAdder m_loaderNanos = new LongAdder();
+
+    private final LongAdder m_n5ReadNanos = new LongAdder();
+
+    private final LongAdder m_n5WriteNanos = new LongAdder();
+
+    private final LongAdder m_skippedWrites = new LongAdder();
+
+    void request() {
+        m_requests.increment();
+    }
+
+    void offHeapHit() {
+        m_offHeapHits.increment();
+    }
+
+    void n5Read(final long numBytes) {
+        m_n5Reads.increment();
+        m_bytesRead.add(numBytes);
+    }
+
+    void n5ReadTime(final long nanos) {
+        m_n5ReadNanos.add(nanos);
+    }
+
+    void loaderCall(final long nanos) {
+        m_loaderCalls.increment();
+        m_loaderNanos.add(nanos);
+    }
+
+    void removal() {
+        m_removals.increment();
+    }
+
+    void n5Write(final long numBytes, final long nanos) {
+        m_n5Writes.increment();
+        m_bytesWritten.add(numBytes);
+        m_n5WriteNanos.add(nanos);
+    }
+
+    void skippedWrite() {
+        m_skippedWrites.increment();
+    }
+
+    /**
+     * @return the number of cells requested from the {@link N5CellCache}
+     */
+    public long requests() {
+        return m_requests.sum();
+    }
+
+    /**
+     * @return the number of requests served by the off-heap tier
+     */
+    public long offHeapHits() {
+        return m_offHeapHits.sum();
+    }
+
+    /**
+     * @return the number of blocks read from N5
+     */
+    public long n5Reads() {
+        return m_n5Reads.sum();
+    }
+
+    /**
+     * @return the number of bytes of cell data read from N5
+     */
+    public long bytesRead() {
+        return m_bytesRead.sum();
+    }
+
+    /**
+     * @return the number of cells obtained from the backing loader
+     */
+    public long loaderCalls() {
+        return m_loaderCalls.sum();
+    }
+
+    /**
+     * @return the number of cells evicted from the in-memory cache
+     */
+    public long removals() {
+        return m_removals.sum();
+    }
+
+    /**
+     * @return the number of blocks written to N5
+     */
+    public long n5Writes() {
+        return m_n5Writes.sum();
+    }
+
+    /**
+     * @return the number of bytes of cell data written to N5
+     */
+    public long bytesWritten() {
+        return m_bytesWritten.sum();
+    }
+
+    /**
+     * @return the time in nanoseconds spent in the backing loader
+     */
+    public long loaderNanos() {
+        return m_loaderNanos.sum();
+    }
+
+    /**
+     * @return the time in nanoseconds spent reading and decoding N5 blocks
+     */
+    public long n5ReadNanos() {
+        return m_n5ReadNanos.sum();
+    }
+
+    /**
+     * @return the time in nanoseconds spent encoding and writing N5 blocks
+     */
+    public long n5WriteNanos() {
+        return m_n5WriteNanos.sum();
+    }
+
+    /**
+     * @return the number of evicted cells that were not written, because
+     *         recomputing them is cheaper than storing them
+     */
+    public long skippedWrites() {
+        return m_skippedWrites.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "N5CellCacheStatistics = {requests = " + requests() + ", offHeapHits = " + offHeapHits()
+                + ", n5Reads = " + n5Reads() + ", bytesRead = " + bytesRead() + ", loaderCalls = " + loaderCalls()
+                + ", removals = " + removals() + ", n5Writes = " + n5Writes() + ", bytesWritten = "
+                + bytesWritten() + ", skippedWrites = " + skippedWrites() + ", loaderNanos = " + loaderNanos()
+                + ", n5ReadNanos = " + n5ReadNanos() + ", n5WriteNanos = " + n5WriteNanos() + "}";
+    }
+}
@@ -0,0 +1,226 @@
+package net.imglib2.cache.img;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import net.imglib2.Dirty;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Fraction;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+
+/**
+ * The read pipeline of a {@link N5CellCache}, the counterpart of {@link N5CellStorer}: reads the blocks of a grid
+ * from N5 and decodes them into cells. A reader is bound to the grid and dataset attributes it was created for, and is
+ * replaced when the image is appended to.
+ *
+ * @param <A> access type
+ */
+final class N5CellReader<A extends ArrayDataAccess<A>> {
+
+    private final N5Reader m_reader;
+
+    private final String m_dataset;
+
+    private final DatasetAttributes m_attributes;
+
+    private final CellGrid m_grid;
+
+    private final Fraction m_entitiesPerPixel;
+
+    private final AccessIo<A> m_accessIo;
+
+    private final BulkAccessIo<A> m_bulkIo;
+
+    // decodes the payload of the blocks, or null if the blocks hold the serialized cells
+    private final BlockCodec m_codec;
+
+    // whether blocks may be smaller than their cells, because the last dimension grew since they were written
+    private final boolean m_appendable;
+
+    // the cells present in N5, shared with the cache
+    private final Set<Long> m_presentCells;
+
+    // whether cells that are not in m_presentCells may be present nonetheless
+    private final boolean m_presenceUnknown;
+
+    // computes the cells that are not present in N5, which complete the blocks written before the last dimension grew
+    private final CacheLoader<Long, Cell<A>> m_absentLoader;
+
+    private final N5CellCacheStatistics m_statistics;
+
+    // counts the reads per cell, or null
+    private final CellAccessProfile m_profile;
+
+    /**
+     * @param reader the N5 reader
+     * @param dataset the dataset holding the blocks
+     * @param attributes the attributes of the dataset
+     * @param grid the cell grid of the image
+     * @param entitiesPerPixel
+     * @param accessIo
+     * @param codec decodes the payload of the blocks, or {@code null} if they hold the serialized cells
+     * @param appendable whether the last dimension may have grown since blocks were written
+     * @param presentCells the cells present in N5; a completed cell is removed, such that it is written again
+     * @param presenceUnknown whether cells that are not in {@code presentCells} may be present nonetheless, a read
+     *            block is then added to {@code presentCells}
+     * @param absentLoader computes cells that are not present in N5
+     * @param statistics counts the reads
+     * @param profile counts the reads per cell, or {@code null}
+     */
+    N5CellReader(final N5Reader reader, final String dataset, final DatasetAttributes attributes, final CellGrid grid,
+        final Fraction entitiesPerPixel, final AccessIo<A> accessIo, final BlockCodec codec, final boolean appendable,
+        final Set<Long> presentCells, final boolean presenceUnknown, final CacheLoader<Long, Cell<A>> absentLoader,
+        final N5CellCacheStatistics statistics, final CellAccessProfile profile) {
+        m_reader = reader;
+        m_dataset = dataset;
+        m_attributes = attributes;
+        m_grid = grid;
+        m_entitiesPerPixel = entitiesPerPixel;
+        m_accessIo = accessIo;
+        m_bulkIo = new BulkAccessIo<>(accessIo);
+        m_codec = codec;
+        m_appendable = appendable;
+        m_presentCells = presentCells;
+        m_presenceUnknown = presenceUnknown;
+        m_absentLoader = absentLoader;
+        m_statistics = statistics;
+        m_profile = profile;
+    }
+
+    /**
+     * Reads a cell from N5.
+     *
+     * @param index the cell index
+     * @return the cell, or {@code null} if the block does not exist
+     * @throws IOException if reading the block fails
+     */
+    Cell<A> read(final long index) throws IOException {
+        final DataBlock<?> block = readBlock(index);
+        return block == null ? null : decode(index, block);
+    }
+
+    /**
+     * Reads the block of a cell without decoding it, such that the block can be decoded by another thread than the
+     * one doing the I/O.
+     *
+     * @param index the cell index
+     * @return the block, or {@code null} if it does not exist
+     * @throws IOException if reading the block fails
+     */
+    DataBlock<?> readBlock(final long index) throws IOException {
+        final long[] gridPosition = new long[m_grid.numDimensions()];
+        IntervalIndexer.indexToPosition(index, m_grid.getGridDimensions(), gridPosition);
+        final long start = System.nanoTime();
+        final DataBlock<?> block = m_reader.readBlock(m_dataset, m_attributes, gridPosition);
+        m_statistics.n5ReadTime(System.nanoTime() - start);
+        if (block != null && m_presenceUnknown) {
+            // a probe found the block, it does not need to be written again
+            m_presentCells.add(index);
+        }
+        return block;
+    }
+
+    /**
+     * @param index the cell index
+     * @param block the block of the cell read by {@link #readBlock(long)}
+     * @return the cell, completed by the absent loader if the block was written before the last dimension grew
+     */
+    Cell<A> decode(final long index, final DataBlock<?> block) {
+        final long[] cellMin = new long[m_grid.numDimensions()];
+        final int[] cellDims = new int[m_grid.numDimensions()];
+        m_grid.getCellDimensions(index, cellMin, cellDims);
+
+        final int numEntities = (int) m_entitiesPerPixel.mulCeil(Intervals.numElements(cellDims));
+        // smaller than the cell if it was at the border before the last dimension grew
+        final int storedEntities = m_appendable
+                ? (int) m_entitiesPerPixel.mulCeil(Intervals.numElements(block.getSize())) : numEntities;
+        final long start = System.nanoTime();
+        // N5 already converted the block to the primitive array of an unencoded cell
+        A array = m_codec == null ? m_bulkIo.copyOf(block.getData(), storedEntities) : null;
+        if (array == null) {
+            final ByteBuffer data = m_codec == null ? block.toByteBuffer()
+                    : m_codec.decode(block.toByteBuffer(), storedEntities);
+            array = m_bulkIo.load(data, storedEntities);
+        }
+        m_statistics.n5ReadTime(System.nanoTime() - start);
+        m_statistics.n5Read((long) storedEntities * m_accessIo.getBytesPerElement());
+        if (m_profile != null) {
+            m_profile.count(CellAccessProfile.Counter.N5_READS, index);
+        }
+        if (storedEntities < numEntities) {
+            return complete(index, array, Intervals.numElements(block.getSize()));
+        }
+        return new Cell<>(cellDims, cellMin, array);
+    }
+
+    /**
+     * The position of a block in the N5 container, where the first dimension
+     * is the outermost directory level.
+     *
+     * @param index the cell index
+     * @return the position in the order of the blocks on disk
+     */
+    long onDiskOrder(final long index) {
+        final long[] gridDims = m_grid.getGridDimensions();
+        final long[] gridPosition = new long[gridDims.length];
+        IntervalIndexer.indexToPosition(index, gridDims, gridPosition);
+        long order = 0;
+        for (int d = 0; d < gridDims.length; ++d) {
+            order = order * gridDims[d] + gridPosition[d];
+        }
+        return order;
+    }
+
+    /**
+     * Completes a cell whose block was written before the last dimension
+     * grew. The stored pixels are a prefix of the cell's pixels, as the
+     * last dimension varies slowest; the remaining ones are computed by the
+     * absent loader. For packed types, the last stored entity also holds
+     * computed pixels, which are merged bit by bit. The completed cell is
+     * written again on eviction.
+     */
+    private Cell<A> complete(final long index, final A stored, final long storedPixels) {
+        final Cell<A> cell;
+        try {
+            cell = m_absentLoader.get(index);
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+        final Object prefix = stored.getCurrentStorageArray();
+        // an empty cell of a sparse image gets its own array
+        final Object target = SparseAccesses.writableStorageArray(cell.getData());
+        if (m_entitiesPerPixel.getNumerator() % m_entitiesPerPixel.getDenominator() == 0) {
+            System.arraycopy(prefix, 0, target, 0, Array.getLength(prefix));
+        } else {
+            // pixels are packed into longs from the least significant bit on
+            final long storedBits = storedPixels * Long.SIZE * m_entitiesPerPixel.getNumerator()
+                    / m_entitiesPerPixel.getDenominator();
+            final int wholeEntities = (int) (storedBits / Long.SIZE);
+            System.arraycopy(prefix, 0, target, 0, wholeEntities);
+            final int partialBits = (int) (storedBits % Long.SIZE);
+            if (partialBits > 0) {
+                final long mask = (1L << partialBits) - 1;
+                final long[] targetLongs = (long[]) target;
+                targetLongs[wholeEntities] = targetLongs[wholeEntities] & ~mask
+                        | ((long[]) prefix)[wholeEntities] & mask;
+            }
+        }
+        m_presentCells.remove(index);
+        if (cell.getData() instanceof Dirty) {
+            ((Dirty) cell.getData()).setDirty();
+        }
+        return cell;
+    }
+}
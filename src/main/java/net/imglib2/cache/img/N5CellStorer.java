@@ -77,8 +77,16 @@ public class N5CellStorer<A> implements CellStorer<A> {
 
     private final AccessIo<A> m_accessIo;
 
+    private final BulkAccessIo<A> m_bulkIo;
+
     private final Fraction m_entitiesPerPixel;
 
+    // encodes the serialized cells, or null if they are stored as they are
+    private final BlockCodec m_codec;
+
+    // writes the blocks durably instead of the N5 writer, or null
+    private final DurableBlockStore m_durableStore;
+
     /**
      * @param n5
      * @param dataSet
@@ -89,46 +97,100 @@ public class N5CellStorer<A> implements CellStorer<A> {
      */
     public N5CellStorer(final N5Writer n5, final String dataSet, final int[] cellDimensions, final AccessIo<A> accessIo,
         final Fraction entitiesPerPixel) throws IOException {
+        this(n5, dataSet, cellDimensions, accessIo, entitiesPerPixel, null);
+    }
+
+    /**
+     * @param n5
+     * @param dataSet
+     * @param cellDimensions
+     * @param accessIo
+     * @param entitiesPerPixel
+     * @param codec encodes the serialized cells into the payload of {@code UINT8} blocks, or {@code null} to store
+     *            them as they are
+     * @throws IOException
+     */
+    public N5CellStorer(final N5Writer n5, final String dataSet, final int[] cellDimensions, final AccessIo<A> accessIo,
+        final Fraction entitiesPerPixel, final BlockCodec codec) throws IOException {
+        this(n5, dataSet, cellDimensions, accessIo, entitiesPerPixel, codec, null);
+    }
+
+    /**
+     * @param n5
+     * @param dataSet
+     * @param cellDimensions
+     * @param accessIo
+     * @param entitiesPerPixel
+     * @param codec encodes the serialized cells into the payload of {@code UINT8} blocks, or {@code null} to store
+     *            them as they are
+     * @param durableStore writes the blocks instead of {@code n5}, or {@code null}
+     * @throws IOException
+     */
+    public N5CellStorer(final N5Writer n5, final String dataSet, final int[] cellDimensions, final AccessIo<A> accessIo,
+        final Fraction entitiesPerPixel, final BlockCodec codec, final DurableBlockStore durableStore)
+        throws IOException {
+        m_codec = codec;
+        m_durableStore = durableStore;
         m_n5 = n5;
         m_dataSet = dataSet;
         m_cellDimensions = cellDimensions;
         m_accessIo = accessIo;
+        m_bulkIo = new BulkAccessIo<>(accessIo);
         m_entitiesPerPixel = entitiesPerPixel;
         m_datasetAttributes = n5.getDatasetAttributes(dataSet);
     }
 
     @Override
     public void store(final Cell<A> cell) throws IOException {
-        m_n5.writeBlock(m_dataSet, m_datasetAttributes, new CellDataBlock<>(cell));
+        final CellDataBlock<?> block = new CellDataBlock<>(cell);
+        if (m_codec == null) {
+            writeBlock(block);
+        } else {
+            writeBlock(new EncodedDataBlock(Intervals.minAsLongArray(cell), block.getSize(), block.toByteBuffer()));
+        }
     }
 
     /**
-     * Custom {@link DataBlock} implementation that wraps Imglib2Cells.
-     * 
-     * @author Christian Dietz, KNIME GmbH, Konstanz, Germany
-     * @author Gabriel Einsdorf, KNIME GmbH, Konstanz, Germany
-     * @author Carsten Haubold, KNIME GmbH, Konstanz, Germany
-     * @author Marcel Wiedenmann, KNIME GmbH, Konstanz, Germany
+     * Stores a cell that has already been serialized by the {@link AccessIo} of this storer.
+     *
+     * @param min the minimum of the cell
+     * @param dims the dimensions of the cell
+     * @param data the serialized entities of the cell
+     * @throws IOException if the store fails
      */
-    private class CellDataBlock<T> implements DataBlock<T> {
+    public void store(final long[] min, final int[] dims, final ByteBuffer data) throws IOException {
+        if (m_codec == null) {
+            writeBlock(new SerializedDataBlock<>(min, dims, data));
+        } else {
+            final ByteBuffer serialized = data.duplicate();
+            serialized.clear();
+            writeBlock(new EncodedDataBlock(min, dims, serialized));
+        }
+    }
 
-        private final Cell<A> m_cell;
+    private void writeBlock(final DataBlock<?> block) throws IOException {
+        if (m_durableStore == null) {
+            m_n5.writeBlock(m_dataSet, m_datasetAttributes, block);
+        } else {
+            m_durableStore.write(m_datasetAttributes, block);
+        }
+    }
+
+    /**
+     * Base class for the {@link DataBlock}s written by this storer. These blocks can only be written.
+     */
+    private abstract class AbstractCellDataBlock<T> implements DataBlock<T> {
 
         private final int[] m_localCellDims;
 
         private final long[] m_gridpos;
 
-        public CellDataBlock(final Cell<A> cell) {
+        AbstractCellDataBlock(final long[] min, final int[] localCellDims) {
             final long[] gridPosition = new long[m_cellDimensions.length];
             for (int d = 0; d < gridPosition.length; ++d) {
-                gridPosition[d] = cell.min(d) / m_cellDimensions[d];
+                gridPosition[d] = min[d] / m_cellDimensions[d];
             }
-
-            m_cell = cell;
-
-            // cells at the border of the tensor can be partial, so we need to check the actual size.
-            m_localCellDims = m_cellDimensions.clone();
-            m_cell.dimensions(m_localCellDims);
+            m_localCellDims = localCellDims;
             m_gridpos = gridPosition;
         }
 
@@ -142,30 +204,125 @@ public class N5CellStorer<A> implements CellStorer<A> {
             return m_gridpos;
         }
 
+        /**
+         * Not supported. N5 writes a block from its {@link #getSize() size},
+         * {@link #getNumElements() number of elements} and
+         * {@link #toByteBuffer() serialized data} only, and these blocks are
+         * never handed to a reader. Serialized and encoded blocks do not hold a
+         * primitive array that could be returned either.
+         */
         @Override
         public T getData() {
-        	// TODO: use cell's data?
             throw new UnsupportedOperationException("This block's data can not be accessed directly!");
         }
 
+        @Override
+        public void readData(final ByteBuffer buffer) {
+            throw new UnsupportedOperationException("This block is read only!");
+        }
+
+        /**
+         * The number of stored entities, which differs from the number of pixels for packed types like
+         * {@code BitType}. N5 then records the entity count in the block header.
+         */
+        @Override
+        public int getNumElements() {
+            return (int)m_entitiesPerPixel.mulCeil(Intervals.numElements(m_localCellDims));
+        }
+    }
+
+    /**
+     * Custom {@link DataBlock} implementation that wraps Imglib2Cells.
+     * 
+     * @author Christian Dietz, KNIME GmbH, Konstanz, Germany
+     * @author Gabriel Einsdorf, KNIME GmbH, Konstanz, Germany
+     * @author Carsten Haubold, KNIME GmbH, Konstanz, Germany
+     * @author Marcel Wiedenmann, KNIME GmbH, Konstanz, Germany
+     */
+    private class CellDataBlock<T> extends AbstractCellDataBlock<T> {
+
+        private final Cell<A> m_cell;
+
+        public CellDataBlock(final Cell<A> cell) {
+            // cells at the border of the tensor can be partial, so we need to check the actual size.
+            super(Intervals.minAsLongArray(cell), localCellDims(cell));
+            m_cell = cell;
+        }
+
         @Override
         public ByteBuffer toByteBuffer() {
-            final long blocksize = m_entitiesPerPixel.mulCeil(Intervals.numElements(m_localCellDims));
-            final long bytesize = blocksize * m_accessIo.getBytesPerElement();
+            final int blocksize = getNumElements();
+            final long bytesize = (long)blocksize * m_accessIo.getBytesPerElement();
 
             final ByteBuffer out = ByteBuffer.allocate((int)bytesize);
-            m_accessIo.save(m_cell.getData(), out, (int)blocksize);
+            m_bulkIo.save(m_cell.getData(), out, blocksize);
             return out;
         }
+    }
+
+    /**
+     * {@link DataBlock} wrapping the serialized data of a cell, e.g. from an {@link OffHeapCellStore}.
+     */
+    private class SerializedDataBlock<T> extends AbstractCellDataBlock<T> {
+
+        private final ByteBuffer m_data;
+
+        SerializedDataBlock(final long[] min, final int[] dims, final ByteBuffer data) {
+            super(min, dims);
+            m_data = data;
+        }
 
         @Override
-        public void readData(final ByteBuffer buffer) {
-            throw new UnsupportedOperationException("This block is read only!");
+        public ByteBuffer toByteBuffer() {
+            // N5 writes the backing array of the buffer, direct buffers need to be copied
+            final ByteBuffer data = m_data.duplicate();
+            data.clear();
+            if (data.hasArray() && data.arrayOffset() == 0) {
+                return data;
+            }
+            final ByteBuffer out = ByteBuffer.allocate(data.remaining());
+            out.put(data);
+            out.rewind();
+            return out;
+        }
+    }
+
+    /**
+     * {@link DataBlock} holding the data of a cell encoded by the {@link BlockCodec} of this storer. The number of
+     * elements is the number of encoded bytes, which N5 records in the block header.
+     */
+    private class EncodedDataBlock extends AbstractCellDataBlock<byte[]> {
+
+        private final ByteBuffer m_encoded;
+
+        EncodedDataBlock(final long[] min, final int[] dims, final ByteBuffer serialized) {
+            super(min, dims);
+            final int numEntities = (int)m_entitiesPerPixel.mulCeil(Intervals.numElements(dims));
+            m_encoded = m_codec.encode(serialized, numEntities);
         }
 
         @Override
         public int getNumElements() {
-            return (int)Intervals.numElements(m_localCellDims);
+            return m_encoded.remaining();
+        }
+
+        @Override
+        public ByteBuffer toByteBuffer() {
+            if (m_encoded.hasArray() && m_encoded.arrayOffset() == 0 && m_encoded.position() == 0
+                && m_encoded.remaining() == m_encoded.capacity()) {
+                return m_encoded.duplicate();
+            }
+            // N5 writes the backing array of the buffer, so it must contain exactly the encoded bytes
+            final ByteBuffer out = ByteBuffer.allocate(m_encoded.remaining());
+            out.put(m_encoded.duplicate());
+            out.rewind();
+            return out;
         }
     }
+
+    private int[] localCellDims(final Cell<A> cell) {
+        final int[] localCellDims = m_cellDimensions.clone();
+        cell.dimensions(localCellDims);
+        return localCellDims;
+    }
 }
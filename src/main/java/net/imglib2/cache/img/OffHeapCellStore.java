@@ -0,0 +1,452 @@
+package net.imglib2.cache.img;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import net.imglib2.Dirty;
+import net.imglib2.img.cell.Cell;
+
+/**
+ * An off-heap tier for cells that were evicted from the in-memory cache.
+ * <p>
+ * Cells are kept in their serialized (big-endian, {@link AccessIo}) form in
+ * direct {@link ByteBuffer}s, so they do not count towards the garbage
+ * collected heap. The serialized form is exactly the payload of an N5 block,
+ * hence cells that are evicted from this store can be written to N5 without
+ * materializing them on the heap again.
+ * </p>
+ * <p>
+ * Buffers are released explicitly when a cell leaves the store and are reused
+ * for subsequent cells of the same size, because direct memory is only freed
+ * by the garbage collector otherwise.
+ * </p>
+ * <p>
+ * The least recently used cells are evicted when the store is full. With a
+ * {@link FrequencySketch}, a cell is only admitted to a full store if it was
+ * requested more often recently than the cell it would evict (TinyLFU), such
+ * that a sweep over many cells that are used once does not displace cells that
+ * are used repeatedly.
+ * </p>
+ * <p>
+ * Stores sharing a {@link CellMemoryBudget} additionally evict their least
+ * recently used cells when the cells of all stores exceed the budget. Such
+ * victims are handed to the eviction handler of the store they belong to.
+ * </p>
+ *
+ * @param <A> access type
+ */
+public class OffHeapCellStore<A> {
+
+    private final long m_capacity;
+
+    private final AccessIo<A> m_accessIo;
+
+    private final BulkAccessIo<A> m_bulkIo;
+
+    // access ordered, the eldest entry is the least recently used one
+    private final LinkedHashMap<Long, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // entries that were evicted but whose data has not been persisted yet
+    private final Map<Long, Entry> m_evicting = new HashMap<>();
+
+    private final Map<Integer, ArrayDeque<ByteBuffer>> m_pool = new HashMap<>();
+
+    private long m_usedBytes = 0;
+
+    private long m_pooledBytes = 0;
+
+    // request frequencies for admission, or null if every cell is admitted
+    private final FrequencySketch m_sketch;
+
+    // the budget shared with other stores, or null
+    private final CellMemoryBudget m_budget;
+
+    // whether the bytes of this store are accounted by the budget
+    private boolean m_attached;
+
+    private Consumer<Entry> m_evictionHandler = this::evicted;
+
+    /**
+     * @param capacity the maximum number of bytes held by cells in this store
+     * @param accessIo serializes the cell accesses
+     */
+    public OffHeapCellStore(final long capacity, final AccessIo<A> accessIo) {
+        this(capacity, accessIo, null);
+    }
+
+    /**
+     * @param capacity the maximum number of bytes held by cells in this store
+     * @param accessIo serializes the cell accesses
+     * @param sketch the request frequencies deciding about the admission of cells to a full store, or {@code null}
+     *            to admit every cell
+     */
+    public OffHeapCellStore(final long capacity, final AccessIo<A> accessIo, final FrequencySketch sketch) {
+        this(capacity, accessIo, sketch, null);
+    }
+
+    /**
+     * @param capacity the maximum number of bytes held by cells in this store
+     * @param accessIo serializes the cell accesses
+     * @param sketch the request frequencies deciding about the admission of cells to a full store, or {@code null}
+     *            to admit every cell
+     * @param budget the budget shared with other stores, or {@code null}
+     */
+    public OffHeapCellStore(final long capacity, final AccessIo<A> accessIo, final FrequencySketch sketch,
+        final CellMemoryBudget budget) {
+        m_capacity = capacity;
+        m_accessIo = accessIo;
+        m_bulkIo = new BulkAccessIo<>(accessIo);
+        m_sketch = sketch;
+        m_budget = budget;
+        if (budget != null) {
+            m_attached = true;
+            budget.register(this);
+        }
+    }
+
+    /**
+     * Sets the handler of entries that are evicted to keep the shared {@link CellMemoryBudget}. The handler must
+     * hand the entries back via {@link #evicted(Entry)} once they were dealt with. By default, they are dropped.
+     *
+     * @param handler the handler of evicted entries
+     */
+    public synchronized void setEvictionHandler(final Consumer<Entry> handler) {
+        m_evictionHandler = handler;
+    }
+
+    /**
+     * Records a request of a cell for the admission policy.
+     *
+     * @param key the cell index
+     */
+    public void recordAccess(final long key) {
+        if (m_sketch != null) {
+            synchronized (this) {
+                m_sketch.increment(key);
+            }
+        }
+    }
+
+    /**
+     * Puts a cell into the store. Least recently used cells are evicted if the capacity is exceeded. The returned
+     * victims must be handed back via {@link #evicted(Entry)} once they were dealt with.
+     *
+     * @param key the cell index
+     * @param cell the cell
+     * @param numEntities the number of entities of the cell's access
+     * @param persisted whether the data of the cell is already present in the backing storage
+     * @return the evicted entries, or {@code null} if the cell was not admitted, because it is larger than the
+     *         capacity of this store or requested less frequently than the cells it would evict
+     */
+    public List<Entry> put(final long key, final Cell<A> cell, final int numEntities, final boolean persisted) {
+        final int numBytes = numEntities * m_accessIo.getBytesPerElement();
+        if (numBytes > m_capacity) {
+            return null;
+        }
+
+        final ByteBuffer buffer = allocate(numBytes);
+        m_bulkIo.save(cell.getData(), buffer, numEntities);
+
+        final long[] min = new long[cell.numDimensions()];
+        cell.min(min);
+        final int[] dims = new int[cell.numDimensions()];
+        cell.dimensions(dims);
+
+        final List<Entry> victims = new ArrayList<>();
+        synchronized (this) {
+            if (m_sketch != null && m_usedBytes + numBytes > m_capacity && !m_entries.isEmpty()
+                && !m_entries.containsKey(key)) {
+                final Entry eldest = m_entries.values().iterator().next();
+                if (m_sketch.frequency(key) <= m_sketch.frequency(eldest.m_key)) {
+                    recycle(buffer);
+                    return null;
+                }
+            }
+
+            final Entry entry = new Entry(key, min, dims, numEntities, persisted, buffer);
+            entry.m_stamp = tick();
+            final Entry previous = m_entries.put(key, entry);
+            addUsedBytes(numBytes);
+            if (previous != null) {
+                addUsedBytes(-previous.m_data.capacity());
+                recycle(previous.m_data);
+            }
+
+            final Iterator<Entry> it = m_entries.values().iterator();
+            while (m_usedBytes > m_capacity && it.hasNext()) {
+                final Entry victim = it.next();
+                it.remove();
+                addUsedBytes(-victim.m_data.capacity());
+                m_evicting.put(victim.m_key, victim);
+                victims.add(victim);
+            }
+        }
+        if (m_budget != null) {
+            m_budget.enforce();
+        }
+        return victims;
+    }
+
+    /**
+     * Removes a cell from the store and materializes it on the heap. Accesses of cells that have not been persisted
+     * yet are marked dirty, such that they are written again on their next eviction.
+     *
+     * @param key the cell index
+     * @return the cell, or {@code null} if the store does not contain it
+     */
+    public Cell<A> remove(final long key) {
+        final Entry entry;
+        synchronized (this) {
+            entry = m_entries.remove(key);
+            if (entry == null) {
+                final Entry evicting = m_evicting.get(key);
+                // the buffer of an evicting entry is still being written, keep it and read it under the lock, such
+                // that it is not recycled meanwhile
+                return evicting == null ? null : load(evicting);
+            }
+            addUsedBytes(-entry.m_data.capacity());
+        }
+
+        final Cell<A> cell = load(entry);
+        synchronized (this) {
+            recycle(entry.m_data);
+        }
+        return cell;
+    }
+
+    /**
+     * @param key the cell index
+     * @return whether the store contains the cell, also while it is being evicted
+     */
+    public synchronized boolean contains(final long key) {
+        return m_entries.containsKey(key) || m_evicting.containsKey(key);
+    }
+
+    /**
+     * Drops a cell from the store without persisting it, e.g. because it was invalidated.
+     *
+     * @param key the cell index
+     */
+    public synchronized void discard(final long key) {
+        final Entry entry = m_entries.remove(key);
+        if (entry != null) {
+            addUsedBytes(-entry.m_data.capacity());
+            recycle(entry.m_data);
+        }
+    }
+
+    /**
+     * Evicts a cell from the store, e.g. because it must be read from N5. Like the entries returned by
+     * {@link #put(long, Cell, int, boolean)}, the entry can be read until it is handed back with
+     * {@link #evicted(Entry)}.
+     *
+     * @param key the cell index
+     * @return the evicted entry, or {@code null} if the store does not contain the cell
+     */
+    public synchronized Entry evict(final long key) {
+        final Entry entry = m_entries.remove(key);
+        if (entry != null) {
+            addUsedBytes(-entry.m_data.capacity());
+            m_evicting.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Materializes a copy of a cell on the heap, leaving it in the store.
+     *
+     * @param key the cell index
+     * @return the cell, or {@code null} if the store does not contain it
+     */
+    public synchronized Cell<A> copy(final long key) {
+        final Entry resident = m_entries.get(key);
+        if (resident != null) {
+            resident.m_stamp = tick();
+        }
+        final Entry entry = resident != null ? resident : m_evicting.get(key);
+        // reading under the lock keeps the buffer from being recycled meanwhile
+        return entry == null ? null : load(entry);
+    }
+
+    private Cell<A> load(final Entry entry) {
+        final A access = m_bulkIo.load(entry.data(), entry.m_numEntities);
+        if (!entry.m_persisted && access instanceof Dirty) {
+            ((Dirty)access).setDirty();
+        }
+        return new Cell<>(entry.m_dims, entry.m_min, access);
+    }
+
+    /**
+     * Releases the memory of an entry returned by {@link #put(long, Cell, int, boolean)} after it was persisted or
+     * dropped.
+     *
+     * @param entry the evicted entry
+     */
+    public synchronized void evicted(final Entry entry) {
+        if (m_evicting.remove(entry.m_key) == entry) {
+            recycle(entry.m_data);
+        }
+    }
+
+    /**
+     * Stops accounting the cells of this store in the shared {@link CellMemoryBudget}, e.g. when its image is closed.
+     * The cells stay in the store.
+     */
+    public void detach() {
+        if (m_budget != null) {
+            m_budget.unregister(this);
+            synchronized (this) {
+                if (m_attached) {
+                    m_budget.adjust(-m_usedBytes);
+                    m_attached = false;
+                }
+            }
+        }
+    }
+
+    // the access stamp of the least recently used cell, for eviction across stores
+    synchronized long eldestStamp() {
+        return m_entries.isEmpty() ? Long.MAX_VALUE : m_entries.values().iterator().next().m_stamp;
+    }
+
+    // evicts the least recently used cell to keep the shared budget
+    synchronized Entry evictEldest() {
+        final Iterator<Entry> it = m_entries.values().iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        final Entry victim = it.next();
+        it.remove();
+        addUsedBytes(-victim.m_data.capacity());
+        m_evicting.put(victim.m_key, victim);
+        return victim;
+    }
+
+    // passes an entry evicted by the shared budget to the handler, without holding the lock
+    void handOver(final Entry victim) {
+        final Consumer<Entry> handler;
+        synchronized (this) {
+            handler = m_evictionHandler;
+        }
+        handler.accept(victim);
+    }
+
+    /**
+     * @return the number of bytes held by the cells in this store
+     */
+    public synchronized long sizeInBytes() {
+        return m_usedBytes;
+    }
+
+    /**
+     * @return the number of cells in this store
+     */
+    public synchronized int size() {
+        return m_entries.size();
+    }
+
+    // must be called while holding the lock
+    private void addUsedBytes(final long deltaBytes) {
+        m_usedBytes += deltaBytes;
+        if (m_attached) {
+            m_budget.adjust(deltaBytes);
+        }
+    }
+
+    private long tick() {
+        return m_budget == null ? 0 : m_budget.tick();
+    }
+
+    private ByteBuffer allocate(final int numBytes) {
+        synchronized (this) {
+            final ArrayDeque<ByteBuffer> free = m_pool.get(numBytes);
+            if (free != null && !free.isEmpty()) {
+                m_pooledBytes -= numBytes;
+                final ByteBuffer buffer = free.poll();
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(numBytes);
+    }
+
+    // must be called while holding the lock
+    private void recycle(final ByteBuffer buffer) {
+        final int numBytes = buffer.capacity();
+        // keep at most as much memory around as the cells could occupy, the rest is left to the garbage collector
+        if (m_usedBytes + m_pooledBytes + numBytes <= m_capacity) {
+            m_pool.computeIfAbsent(numBytes, n -> new ArrayDeque<>()).push(buffer);
+            m_pooledBytes += numBytes;
+        }
+    }
+
+    /**
+     * A serialized cell.
+     */
+    public static final class Entry {
+
+        private final long m_key;
+
+        private final long[] m_min;
+
+        private final int[] m_dims;
+
+        private final int m_numEntities;
+
+        private final boolean m_persisted;
+
+        private final ByteBuffer m_data;
+
+        // the last access, ordering the cells of all stores sharing a budget
+        private long m_stamp;
+
+        Entry(final long key, final long[] min, final int[] dims, final int numEntities, final boolean persisted,
+            final ByteBuffer data) {
+            m_key = key;
+            m_min = min;
+            m_dims = dims;
+            m_numEntities = numEntities;
+            m_persisted = persisted;
+            m_data = data;
+        }
+
+        public long key() {
+            return m_key;
+        }
+
+        public long[] min() {
+            return m_min;
+        }
+
+        public int[] dimensions() {
+            return m_dims;
+        }
+
+        public int numEntities() {
+            return m_numEntities;
+        }
+
+        /**
+         * @return whether the data of this cell is already present in the backing storage
+         */
+        public boolean isPersisted() {
+            return m_persisted;
+        }
+
+        /**
+         * @return a read-only view of the serialized data
+         */
+        public ByteBuffer data() {
+            final ByteBuffer data = m_data.asReadOnlyBuffer();
+            data.clear();
+            return data;
+        }
+    }
+}
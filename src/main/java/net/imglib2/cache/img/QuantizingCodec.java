@@ -0,0 +1,183 @@
+package net.imglib2.cache.img;
+
+import java.nio.ByteBuffer;
+
+import net.imglib2.cache.img.N5CachedCellImgOptions.FloatEncoding;
+
+/**
+ * A {@link BlockCodec} storing {@code float} or {@code double} entities in a
+ * reduced representation, see {@link FloatEncoding} for the error bounds.
+ * <p>
+ * Scaled encodings start with the minimum and maximum of the finite values of
+ * the block as two {@code double}s, followed by one unsigned integer code per
+ * entity. The largest code is reserved for {@code NaN}.
+ * </p>
+ */
+public class QuantizingCodec implements BlockCodec {
+
+    private final FloatEncoding m_encoding;
+
+    private final int m_bytesPerEntity;
+
+    /**
+     * @param encoding the reduced representation, not {@link FloatEncoding#FULL}
+     * @param doublePrecision whether the entities are {@code double}s rather than {@code float}s
+     */
+    public QuantizingCodec(final FloatEncoding encoding, final boolean doublePrecision) {
+        if (encoding == FloatEncoding.FULL) {
+            throw new IllegalArgumentException("Full precision does not need to be encoded");
+        }
+        m_encoding = encoding;
+        m_bytesPerEntity = doublePrecision ? Double.BYTES : Float.BYTES;
+    }
+
+    @Override
+    public String name() {
+        return m_encoding.name().toLowerCase() + (m_bytesPerEntity == Double.BYTES ? "-float64" : "-float32");
+    }
+
+    @Override
+    public ByteBuffer encode(final ByteBuffer data, final int numEntities) {
+        if (m_encoding == FloatEncoding.HALF) {
+            final ByteBuffer out = ByteBuffer.allocate(numEntities * encodedBytesPerEntity());
+            for (int i = 0; i < numEntities; ++i) {
+                out.putShort(toHalf((float) get(data, i)));
+            }
+            out.flip();
+            return out;
+        }
+
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numEntities; ++i) {
+            final double value = get(data, i);
+            if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+        if (min > max) {
+            // no finite values
+            min = max = 0;
+        }
+
+        final int levels = levels();
+        final double scale = max > min ? levels / (max - min) : 0;
+        final ByteBuffer out = ByteBuffer.allocate(2 * Double.BYTES + numEntities * encodedBytesPerEntity());
+        out.putDouble(min);
+        out.putDouble(max);
+        for (int i = 0; i < numEntities; ++i) {
+            final double value = get(data, i);
+            final long code = Double.isNaN(value) ? levels + 1
+                    : Math.max(0, Math.min(levels, Math.round((value - min) * scale)));
+            if (m_encoding == FloatEncoding.SCALED_16) {
+                out.putShort((short) code);
+            } else {
+                out.put((byte) code);
+            }
+        }
+        out.flip();
+        return out;
+    }
+
+    @Override
+    public ByteBuffer decode(final ByteBuffer data, final int numEntities) {
+        final ByteBuffer in = data.slice();
+        final ByteBuffer out = ByteBuffer.allocate(numEntities * m_bytesPerEntity);
+        if (m_encoding == FloatEncoding.HALF) {
+            for (int i = 0; i < numEntities; ++i) {
+                put(out, toFloat(in.getShort()));
+            }
+        } else {
+            final double min = in.getDouble();
+            final double max = in.getDouble();
+            final int levels = levels();
+            final double step = (max - min) / levels;
+            for (int i = 0; i < numEntities; ++i) {
+                final int code = m_encoding == FloatEncoding.SCALED_16 ? in.getShort() & 0xffff : in.get() & 0xff;
+                put(out, code > levels ? Double.NaN : min + code * step);
+            }
+        }
+        out.flip();
+        return out;
+    }
+
+    /**
+     * @return the number of bytes of the code of one entity
+     */
+    public int encodedBytesPerEntity() {
+        return m_encoding == FloatEncoding.SCALED_8 ? 1 : 2;
+    }
+
+    // the number of steps between the minimum and the maximum of a block
+    private int levels() {
+        return m_encoding == FloatEncoding.SCALED_16 ? 0xfffe : 0xfe;
+    }
+
+    private double get(final ByteBuffer data, final int i) {
+        return m_bytesPerEntity == Double.BYTES ? data.getDouble(i * Double.BYTES) : data.getFloat(i * Float.BYTES);
+    }
+
+    private void put(final ByteBuffer out, final double value) {
+        if (m_bytesPerEntity == Double.BYTES) {
+            out.putDouble(value);
+        } else {
+            out.putFloat((float) value);
+        }
+    }
+
+    /**
+     * Converts a {@code float} to the bits of the nearest IEEE 754 half
+     * precision value, rounding ties to even.
+     */
+    static short toHalf(final float value) {
+        final int bits = Float.floatToRawIntBits(value);
+        final int sign = bits >>> 16 & 0x8000;
+        final int abs = bits & 0x7fffffff;
+        if (abs >= 0x7f800000) {
+            // infinity or NaN
+            return (short) (sign | (abs > 0x7f800000 ? 0x7e00 : 0x7c00));
+        }
+        if (abs >= 0x477ff000) {
+            // rounds to a value beyond 65504, the largest half
+            return (short) (sign | 0x7c00);
+        }
+        if (abs < 0x38800000) {
+            // below 2^-14, subnormal half
+            if (abs < 0x33000000) {
+                return (short) sign;
+            }
+            final int mantissa = abs & 0x7fffff | 0x800000;
+            final int shift = 126 - (abs >>> 23);
+            return (short) (sign | roundShift(mantissa, shift));
+        }
+        final int half = (abs >>> 23) - 112 << 10 | (abs & 0x7fffff) >>> 13;
+        final int remainder = abs & 0x1fff;
+        // a carry of the mantissa correctly increments the exponent
+        return (short) (sign | (remainder > 0x1000 || remainder == 0x1000 && (half & 1) != 0 ? half + 1 : half));
+    }
+
+    private static int roundShift(final int value, final int shift) {
+        final int shifted = value >>> shift;
+        final int remainder = value & (1 << shift) - 1;
+        final int halfway = 1 << shift - 1;
+        return remainder > halfway || remainder == halfway && (shifted & 1) != 0 ? shifted + 1 : shifted;
+    }
+
+    /**
+     * Converts the bits of an IEEE 754 half precision value to a {@code float}.
+     */
+    static float toFloat(final short half) {
+        final int sign = (half & 0x8000) << 16;
+        final int exponent = half >>> 10 & 0x1f;
+        final int mantissa = half & 0x3ff;
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | mantissa << 13);
+        }
+        if (exponent == 0) {
+            final float value = mantissa * 0x1p-24f;
+            return sign != 0 ? -value : value;
+        }
+        return Float.intBitsToFloat(sign | exponent + 112 << 23 | mantissa << 13);
+    }
+}
@@ -0,0 +1,123 @@
+package net.imglib2.cache.img;
+
+import java.nio.ByteBuffer;
+
+import net.imglib2.cache.img.N5CachedCellImgOptions.Shuffle;
+
+/**
+ * A {@link BlockCodec} reordering the bytes or bits of multi-byte elements,
+ * such that bytes or bits of the same significance are adjacent. Neighbouring
+ * pixels mostly differ in their low-order bytes, hence the reordered data
+ * contains long runs of equal high-order bytes, which the N5 compression
+ * compresses better and faster than the interleaved elements.
+ * <p>
+ * {@link Shuffle#BYTE} groups the {@code i}-th bytes of all elements,
+ * {@link Shuffle#BIT} additionally groups the {@code j}-th bits of each byte
+ * plane. Trailing bytes that do not form a whole element, or for bit shuffling
+ * a whole group of eight elements, are stored unchanged.
+ * </p>
+ */
+public class ShuffleCodec implements BlockCodec {
+
+    private final Shuffle m_shuffle;
+
+    private final int m_elementSize;
+
+    /**
+     * @param shuffle the reordering, not {@link Shuffle#NONE}
+     * @param elementSize the number of bytes of an element
+     */
+    public ShuffleCodec(final Shuffle shuffle, final int elementSize) {
+        if (shuffle == Shuffle.NONE) {
+            throw new IllegalArgumentException("No shuffling does not need to be encoded");
+        }
+        m_shuffle = shuffle;
+        m_elementSize = elementSize;
+    }
+
+    @Override
+    public String name() {
+        return (m_shuffle == Shuffle.BYTE ? "shuffle" : "bitshuffle") + m_elementSize;
+    }
+
+    @Override
+    public ByteBuffer encode(final ByteBuffer data, final int numEntities) {
+        final byte[] in = toArray(data);
+        final byte[] out = new byte[in.length];
+        final int n = numElements(in.length);
+        if (m_shuffle == Shuffle.BYTE) {
+            for (int i = 0; i < n; ++i) {
+                for (int b = 0; b < m_elementSize; ++b) {
+                    out[b * n + i] = in[i * m_elementSize + b];
+                }
+            }
+        } else {
+            final int planeSize = n / 8;
+            for (int b = 0; b < m_elementSize; ++b) {
+                for (int bit = 0; bit < 8; ++bit) {
+                    final int plane = (b * 8 + bit) * planeSize;
+                    final int shift = 7 - bit;
+                    for (int i = 0; i < n; i += 8) {
+                        int packed = 0;
+                        for (int j = 0; j < 8; ++j) {
+                            packed = packed << 1 | in[(i + j) * m_elementSize + b] >>> shift & 1;
+                        }
+                        out[plane + i / 8] = (byte) packed;
+                    }
+                }
+            }
+        }
+        final int tail = n * m_elementSize;
+        System.arraycopy(in, tail, out, tail, in.length - tail);
+        return ByteBuffer.wrap(out);
+    }
+
+    @Override
+    public ByteBuffer decode(final ByteBuffer data, final int numEntities) {
+        final byte[] in = toArray(data);
+        final byte[] out = new byte[in.length];
+        final int n = numElements(in.length);
+        if (m_shuffle == Shuffle.BYTE) {
+            for (int i = 0; i < n; ++i) {
+                for (int b = 0; b < m_elementSize; ++b) {
+                    out[i * m_elementSize + b] = in[b * n + i];
+                }
+            }
+        } else {
+            final int planeSize = n / 8;
+            for (int b = 0; b < m_elementSize; ++b) {
+                for (int bit = 0; bit < 8; ++bit) {
+                    final int plane = (b * 8 + bit) * planeSize;
+                    final int mask = 1 << 7 - bit;
+                    for (int i = 0; i < n; i += 8) {
+                        final int packed = in[plane + i / 8];
+                        for (int j = 0; j < 8; ++j) {
+                            if ((packed >>> 7 - j & 1) != 0) {
+                                out[(i + j) * m_elementSize + b] |= mask;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        final int tail = n * m_elementSize;
+        System.arraycopy(in, tail, out, tail, in.length - tail);
+        return ByteBuffer.wrap(out);
+    }
+
+    // the number of elements that are reordered
+    private int numElements(final int numBytes) {
+        final int n = numBytes / m_elementSize;
+        return m_shuffle == Shuffle.BIT ? n - n % 8 : n;
+    }
+
+    static byte[] toArray(final ByteBuffer data) {
+        final ByteBuffer in = data.duplicate();
+        if (in.hasArray() && in.arrayOffset() == 0 && in.position() == 0 && in.limit() == in.capacity()) {
+            return in.array();
+        }
+        final byte[] bytes = new byte[in.remaining()];
+        in.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,398 @@
+package net.imglib2.cache.img;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.array.DirtyByteArray;
+import net.imglib2.img.basictypeaccess.array.DirtyIntArray;
+import net.imglib2.img.basictypeaccess.array.DirtyLongArray;
+import net.imglib2.img.basictypeaccess.array.DirtyShortArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.DirtyVolatileByteArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.DirtyVolatileIntArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.DirtyVolatileLongArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.DirtyVolatileShortArray;
+
+/**
+ * Accesses of {@link N5CachedCellImgOptions#sparse(boolean) sparse} images
+ * for cells that are not present in N5. Such a cell is backed by an array of
+ * zeros that is shared by all cells of the same size, and gets a private copy
+ * when it is written for the first time, which marks it dirty. Unwritten cells
+ * hence neither allocate memory nor are persisted.
+ * <p>
+ * Accesses are provided for the dirty (and dirty volatile) {@code byte},
+ * {@code short}, {@code int} and {@code long} arrays of integer and label
+ * types. {@code getCurrentStorageArray()} returns the shared array, such
+ * that reading a cell, e.g. to serialize or copy it, does not allocate. Code
+ * writing to the storage array directly must obtain it with
+ * {@link #writableStorageArray(ArrayDataAccess)} instead, which makes the
+ * private copy.
+ * </p>
+ */
+public final class SparseAccesses {
+
+    /**
+     * An access that may still be backed by the shared array of zeros.
+     */
+    public interface Fill {
+
+        /**
+         * @return whether the access is backed by the shared array of zeros, i.e. was never written
+         */
+        boolean isFill();
+
+        /**
+         * @return the storage array for writing, which is a private copy if the access was backed by the shared array
+         *         of zeros; making the copy marks the access dirty
+         */
+        Object getWritableStorageArray();
+    }
+
+    // shared arrays of zeros by array type and length
+    private static final Map<Class<?>, Map<Integer, Object>> ZEROS = new ConcurrentHashMap<>();
+
+    private SparseAccesses() {
+    }
+
+    /**
+     * @param accessClass the class of the accesses of the image
+     * @return whether sparse accesses exist for this class
+     */
+    public static boolean isSupported(final Class<?> accessClass) {
+        return fill(accessClass, 0) != null;
+    }
+
+    /**
+     * @param accessClass the class of the accesses of the image
+     * @param numEntities the number of entities of the cell
+     * @return a new shared access of zeros, a subclass of {@code accessClass}, or {@code null} if there is no sparse
+     *         access for this class
+     */
+    public static Object fill(final Class<?> accessClass, final int numEntities) {
+        if (accessClass == DirtyByteArray.class) {
+            return new DirtyByte(zeros(byte[].class, numEntities, byte[]::new));
+        } else if (accessClass == DirtyShortArray.class) {
+            return new DirtyShort(zeros(short[].class, numEntities, short[]::new));
+        } else if (accessClass == DirtyIntArray.class) {
+            return new DirtyInt(zeros(int[].class, numEntities, int[]::new));
+        } else if (accessClass == DirtyLongArray.class) {
+            return new DirtyLong(zeros(long[].class, numEntities, long[]::new));
+        } else if (accessClass == DirtyVolatileByteArray.class) {
+            return new DirtyVolatileByte(zeros(byte[].class, numEntities, byte[]::new));
+        } else if (accessClass == DirtyVolatileShortArray.class) {
+            return new DirtyVolatileShort(zeros(short[].class, numEntities, short[]::new));
+        } else if (accessClass == DirtyVolatileIntArray.class) {
+            return new DirtyVolatileInt(zeros(int[].class, numEntities, int[]::new));
+        } else if (accessClass == DirtyVolatileLongArray.class) {
+            return new DirtyVolatileLong(zeros(long[].class, numEntities, long[]::new));
+        }
+        return null;
+    }
+
+    /**
+     * @param access an access of a cell
+     * @return the storage array of the access for writing, see {@link Fill#getWritableStorageArray()}
+     */
+    public static Object writableStorageArray(final ArrayDataAccess<?> access) {
+        return access instanceof Fill ? ((Fill) access).getWritableStorageArray() : access.getCurrentStorageArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T zeros(final Class<T> arrayClass, final int length, final IntFunction<T> create) {
+        return (T)ZEROS.computeIfAbsent(arrayClass, c -> new ConcurrentHashMap<>()).computeIfAbsent(length,
+            create::apply);
+    }
+
+    /**
+     * The copy-on-write state of a sparse access: whether it is still backed by
+     * the shared array of zeros, and the copy that ends the sharing.
+     */
+    static final class SharedZeros {
+
+        private final Runnable m_copy;
+
+        private volatile boolean m_shared = true;
+
+        /**
+         * @param copy replaces the array of the access by a private copy and marks it dirty
+         */
+        SharedZeros(final Runnable copy) {
+            m_copy = copy;
+        }
+
+        boolean isShared() {
+            return m_shared;
+        }
+
+        /**
+         * Makes the private copy, unless it was made already.
+         */
+        void unshare() {
+            if (m_shared) {
+                synchronized (this) {
+                    if (m_shared) {
+                        m_copy.run();
+                        m_shared = false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A sparse {@link DirtyByteArray}.
+     */
+    public static class DirtyByte extends DirtyByteArray implements Fill {
+
+        private final SharedZeros m_zeros = new SharedZeros(() -> {
+            data = data.clone();
+            setDirty();
+        });
+
+        DirtyByte(final byte[] zeros) {
+            super(zeros);
+        }
+
+        @Override
+        public boolean isFill() {
+            return m_zeros.isShared();
+        }
+
+        @Override
+        public void setValue(final int index, final byte value) {
+            m_zeros.unshare();
+            super.setValue(index, value);
+        }
+
+        @Override
+        public byte[] getWritableStorageArray() {
+            m_zeros.unshare();
+            return data;
+        }
+    }
+
+    /**
+     * A sparse {@link DirtyShortArray}.
+     */
+    public static class DirtyShort extends DirtyShortArray implements Fill {
+
+        private final SharedZeros m_zeros = new SharedZeros(() -> {
+            data = data.clone();
+            setDirty();
+        });
+
+        DirtyShort(final short[] zeros) {
+            super(zeros);
+        }
+
+        @Override
+        public boolean isFill() {
+            return m_zeros.isShared();
+        }
+
+        @Override
+        public void setValue(final int index, final short value) {
+            m_zeros.unshare();
+            super.setValue(index, value);
+        }
+
+        @Override
+        public short[] getWritableStorageArray() {
+            m_zeros.unshare();
+            return data;
+        }
+    }
+
+    /**
+     * A sparse {@link DirtyIntArray}.
+     */
+    public static class DirtyInt extends DirtyIntArray implements Fill {
+
+        private final SharedZeros m_zeros = new SharedZeros(() -> {
+            data = data.clone();
+            setDirty();
+        });
+
+        DirtyInt(final int[] zeros) {
+            super(zeros);
+        }
+
+        @Override
+        public boolean isFill() {
+            return m_zeros.isShared();
+        }
+
+        @Override
+        public void setValue(final int index, final int value) {
+            m_zeros.unshare();
+            super.setValue(index, value);
+        }
+
+        @Override
+        public int[] getWritableStorageArray() {
+            m_zeros.unshare();
+            return data;
+        }
+    }
+
+    /**
+     * A sparse {@link DirtyLongArray}.
+     */
+    public static class DirtyLong extends DirtyLongArray implements Fill {
+
+        private final SharedZeros m_zeros = new SharedZeros(() -> {
+            data = data.clone();
+            setDirty();
+        });
+
+        DirtyLong(final long[] zeros) {
+            super(zeros);
+        }
+
+        @Override
+        public boolean isFill() {
+            return m_zeros.isShared();
+        }
+
+        @Override
+        public void setValue(final int index, final long value) {
+            m_zeros.unshare();
+            super.setValue(index, value);
+        }
+
+        @Override
+        public long[] getWritableStorageArray() {
+            m_zeros.unshare();
+            return data;
+        }
+    }
+
+    /**
+     * A sparse {@link DirtyVolatileByteArray}.
+     */
+    public static class DirtyVolatileByte extends DirtyVolatileByteArray implements Fill {
+
+        private final SharedZeros m_zeros = new SharedZeros(() -> {
+            data = data.clone();
+            setDirty();
+        });
+
+        DirtyVolatileByte(final byte[] zeros) {
+            super(zeros, true);
+        }
+
+        @Override
+        public boolean isFill() {
+            return m_zeros.isShared();
+        }
+
+        @Override
+        public void setValue(final int index, final byte value) {
+            m_zeros.unshare();
+            super.setValue(index, value);
+        }
+
+        @Override
+        public byte[] getWritableStorageArray() {
+            m_zeros.unshare();
+            return data;
+        }
+    }
+
+    /**
+     * A sparse {@link DirtyVolatileShortArray}.
+     */
+    public static class DirtyVolatileShort extends DirtyVolatileShortArray implements Fill {
+
+        private final SharedZeros m_zeros = new SharedZeros(() -> {
+            data = data.clone();
+            setDirty();
+        });
+
+        DirtyVolatileShort(final short[] zeros) {
+            super(zeros, true);
+        }
+
+        @Override
+        public boolean isFill() {
+            return m_zeros.isShared();
+        }
+
+        @Override
+        public void setValue(final int index, final short value) {
+            m_zeros.unshare();
+            super.setValue(index, value);
+        }
+
+        @Override
+        public short[] getWritableStorageArray() {
+            m_zeros.unshare();
+            return data;
+        }
+    }
+
+    /**
+     * A sparse {@link DirtyVolatileIntArray}.
+     */
+    public static class DirtyVolatileInt extends DirtyVolatileIntArray implements Fill {
+
+        private final SharedZeros m_zeros = new SharedZeros(() -> {
+            data = data.clone();
+            setDirty();
+        });
+
+        DirtyVolatileInt(final int[] zeros) {
+            super(zeros, true);
+        }
+
+        @Override
+        public boolean isFill() {
+            return m_zeros.isShared();
+        }
+
+        @Override
+        public void setValue(final int index, final int value) {
+            m_zeros.unshare();
+            super.setValue(index, value);
+        }
+
+        @Override
+        public int[] getWritableStorageArray() {
+            m_zeros.unshare();
+            return data;
+        }
+    }
+
+    /**
+     * A sparse {@link DirtyVolatileLongArray}.
+     */
+    public static class DirtyVolatileLong extends DirtyVolatileLongArray implements Fill {
+
+        private final SharedZeros m_zeros = new SharedZeros(() -> {
+            data = data.clone();
+            setDirty();
+        });
+
+        DirtyVolatileLong(final long[] zeros) {
+            super(zeros, true);
+        }
+
+        @Override
+        public boolean isFill() {
+            return m_zeros.isShared();
+        }
+
+        @Override
+        public void setValue(final int index, final long value) {
+            m_zeros.unshare();
+            super.setValue(index, value);
+        }
+
+        @Override
+        public long[] getWritableStorageArray() {
+            m_zeros.unshare();
+            return data;
+        }
+    }
+}
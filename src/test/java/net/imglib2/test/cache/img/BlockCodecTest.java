@@ -0,0 +1,77 @@
+package net.imglib2.test.cache.img;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+import net.imglib2.cache.img.BlockCodec;
+import net.imglib2.cache.img.ChunkedDeflateCodec;
+import net.imglib2.cache.img.N5CachedCellImgOptions.FloatEncoding;
+import net.imglib2.cache.img.N5CachedCellImgOptions.Shuffle;
+import net.imglib2.cache.img.QuantizingCodec;
+import net.imglib2.cache.img.ShuffleCodec;
+
+/**
+ * Checks that the {@link BlockCodec}s restore the serialized cells they encode.
+ */
+public class BlockCodecTest {
+
+	@Test
+	public void testShuffleRoundTrip() {
+		final Random random = new Random(42);
+		for (final Shuffle shuffle : new Shuffle[] { Shuffle.BYTE, Shuffle.BIT }) {
+			for (final int elementSize : new int[] { 1, 2, 4, 8 }) {
+				// lengths that leave trailing bytes and elements
+				for (final int numBytes : new int[] { 0, 7, 64, 1001, 4096 }) {
+					final byte[] data = new byte[numBytes];
+					random.nextBytes(data);
+					final BlockCodec codec = new ShuffleCodec(shuffle, elementSize);
+					final ByteBuffer decoded = codec.decode(codec.encode(ByteBuffer.wrap(data), numBytes / elementSize), numBytes / elementSize);
+					final byte[] restored = new byte[decoded.remaining()];
+					decoded.get(restored);
+					assertArrayEquals(shuffle + " of " + numBytes + " bytes with element size " + elementSize, data, restored);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testQuantizedShuffleRoundTrip() {
+		final int numEntities = 1000;
+		final ByteBuffer data = ByteBuffer.allocate(numEntities * Float.BYTES);
+		for (int i = 0; i < numEntities; ++i) {
+			data.putFloat(i == 3 ? Float.NaN : (float) Math.cos(0.1 * i));
+		}
+		data.flip();
+
+		final BlockCodec codec = new QuantizingCodec(FloatEncoding.HALF, false).andThen(new ShuffleCodec(Shuffle.BIT, 2));
+		final ByteBuffer decoded = codec.decode(codec.encode(data, numEntities), numEntities);
+		for (int i = 0; i < numEntities; ++i) {
+			final float expected = data.getFloat(i * Float.BYTES);
+			// half precision has a relative error of at most 2^-11, or an absolute one of 2^-25 for subnormals
+			assertEquals(expected, decoded.getFloat(i * Float.BYTES), Math.max(Math.abs(expected) / 2048, 0x1p-25f));
+		}
+	}
+
+	@Test
+	public void testChunkedDeflateRoundTrip() {
+		final Random random = new Random(7);
+		// sizes below, at and above multiples of the sub-chunk size
+		for (final int numBytes : new int[] { 0, 1, 4095, 4096, 4097, 100000 }) {
+			final byte[] data = new byte[numBytes];
+			for (int i = 0; i < numBytes; ++i) {
+				data[i] = (byte) random.nextInt(8);
+			}
+			final BlockCodec codec = new ChunkedDeflateCodec(4096, Deflater.DEFAULT_COMPRESSION);
+			final ByteBuffer decoded = codec.decode(codec.encode(ByteBuffer.wrap(data), numBytes), numBytes);
+			final byte[] restored = new byte[decoded.remaining()];
+			decoded.get(restored);
+			assertArrayEquals(numBytes + " bytes", data, restored);
+		}
+	}
+}
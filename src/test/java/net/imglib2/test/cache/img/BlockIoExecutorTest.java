@@ -0,0 +1,242 @@
+package net.imglib2.test.cache.img;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import net.imglib2.cache.img.BlockIoExecutor;
+
+public class BlockIoExecutorTest {
+
+	@Test
+	public void testSubmissionOrder() throws Exception {
+		assertEquals( Arrays.asList( "w0", "w1", "r0", "r1", "w2", "r2" ),
+				dispatchOrder( new BlockIoExecutor( null, 1 ), "w0", "w1", "r0", "r1", "w2", "r2" ) );
+	}
+
+	@Test
+	public void testReadPriority() throws Exception {
+		assertEquals( Arrays.asList( "r0", "r1", "r2", "w0", "w1", "w2" ),
+				dispatchOrder( new BlockIoExecutor( null, 1, true, 60000, 0 ), "w0", "w1", "r0", "r1", "w2", "r2" ) );
+	}
+
+	@Test
+	public void testMinWriteShare() throws Exception {
+		// every other operation is a write while writes are queued
+		assertEquals( Arrays.asList( "r0", "w0", "r1", "w1", "r2", "w2", "r3" ),
+				dispatchOrder( new BlockIoExecutor( null, 1, true, 60000, 0.5 ), "w0", "w1", "w2", "r0", "r1", "r2", "r3" ) );
+	}
+
+	@Test
+	public void testMaxWriteDelay() throws Exception {
+		// the writes waited too long already when the first operation is dispatched
+		assertEquals( Arrays.asList( "w0", "w1", "r0", "r1" ),
+				dispatchOrder( new BlockIoExecutor( null, 1, true, 0, 0 ), "w0", "w1", "r0", "r1" ) );
+	}
+
+	@Test
+	public void testBackgroundReads() throws Exception {
+		// background reads wait for all other queued operations, whatever the scheduling
+		assertEquals( Arrays.asList( "w0", "r0", "r1", "b0", "b1" ),
+				dispatchOrder( new BlockIoExecutor( null, 1 ), "b0", "w0", "r0", "b1", "r1" ) );
+		assertEquals( Arrays.asList( "r0", "w0", "b0" ),
+				dispatchOrder( new BlockIoExecutor( null, 1, true, 60000, 0 ), "b0", "w0", "r0" ) );
+	}
+
+	@Test
+	public void testMaxConcurrency() throws Exception {
+		final BlockIoExecutor io = new BlockIoExecutor( null, 3 );
+		final CountDownLatch started = new CountDownLatch( 3 );
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final List< CompletableFuture< ? > > futures = new ArrayList<>();
+		for ( int i = 0; i < 10; ++i ) {
+			final Callable< Void > operation = () -> {
+				maxRunning.accumulateAndGet( running.incrementAndGet(), Math::max );
+				started.countDown();
+				release.await();
+				running.decrementAndGet();
+				return null;
+			};
+			futures.add( i % 2 == 0 ? io.submitRead( operation ) : io.submitWrite( operation ) );
+		}
+
+		// reads and writes share the limit, the others stay queued
+		assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+		assertEquals( 3, io.runningOperations() );
+		assertEquals( 7, io.queuedReads() + io.queuedWrites() );
+
+		release.countDown();
+		for ( final CompletableFuture< ? > future : futures ) {
+			future.get();
+		}
+		io.awaitWrites();
+		assertEquals( 3, maxRunning.get() );
+	}
+
+	@Test
+	public void testNestedSubmissions() throws Exception {
+		// operations that submit the next one, on an executor that runs them on the calling thread
+		final BlockIoExecutor io = new BlockIoExecutor( Runnable::run, 1 );
+		final AtomicInteger finished = new AtomicInteger();
+		final int depth = 100_000;
+		final Callable< Void > operation = new Callable< Void >() {
+			@Override
+			public Void call() {
+				if ( finished.incrementAndGet() < depth ) {
+					io.submitWrite( this );
+				}
+				return null;
+			}
+		};
+
+		// the nested submissions are dispatched by the loop of the first one, not on a growing stack
+		io.submitWrite( operation ).get();
+		assertEquals( depth, finished.get() );
+		io.close();
+	}
+
+	@Test
+	public void testRejectedOperations() throws Exception {
+		final ExecutorService pool = Executors.newSingleThreadExecutor();
+		pool.shutdown();
+		final BlockIoExecutor io = new BlockIoExecutor( pool, 2 );
+		final AtomicInteger ran = new AtomicInteger();
+		final Callable< Void > operation = () -> {
+			ran.incrementAndGet();
+			return null;
+		};
+		final List< CompletableFuture< Void > > futures = Arrays.asList( io.submitRead( operation ), io.submitWrite( operation ) );
+
+		// rejected operations fail instead of running on the submitting thread
+		for ( final CompletableFuture< Void > future : futures ) {
+			try {
+				future.get();
+				fail( "A rejected operation must fail" );
+			} catch ( final ExecutionException e ) {
+				assertTrue( e.getCause() instanceof RejectedExecutionException );
+			}
+		}
+		assertEquals( 0, ran.get() );
+		assertEquals( 0, io.runningOperations() );
+		io.awaitWrites();
+	}
+
+	@Test
+	public void testAwaitWritesSubmittedBefore() throws Exception {
+		final ExecutorService pool = Executors.newFixedThreadPool( 2 );
+		try {
+			final BlockIoExecutor io = new BlockIoExecutor( pool, 2 );
+			final CountDownLatch releaseFirst = new CountDownLatch( 1 );
+			final CountDownLatch releaseLater = new CountDownLatch( 1 );
+			final CompletableFuture< Void > first = io.submitWrite( () -> {
+				releaseFirst.await();
+				return null;
+			} );
+			final CountDownLatch awaited = new CountDownLatch( 1 );
+			final Thread waiting = new Thread( () -> {
+				try {
+					io.awaitWrites();
+					awaited.countDown();
+				} catch ( final InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+			} );
+			waiting.start();
+			// give the thread time to take its snapshot before the next write is submitted
+			Thread.sleep( 100 );
+			final CompletableFuture< Void > later = io.submitWrite( () -> {
+				releaseLater.await();
+				return null;
+			} );
+
+			// the write submitted while waiting does not keep the waiting thread blocked
+			assertFalse( awaited.await( 100, TimeUnit.MILLISECONDS ) );
+			releaseFirst.countDown();
+			first.get();
+			assertTrue( awaited.await( 10, TimeUnit.SECONDS ) );
+			assertFalse( later.isDone() );
+			releaseLater.countDown();
+			later.get();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		final BlockIoExecutor io = new BlockIoExecutor( null, 2 );
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final CompletableFuture< Void > submitted = io.submitWrite( () -> {
+			release.await();
+			return null;
+		} );
+		io.close();
+		try {
+			io.submitRead( () -> null );
+			fail( "A closed executor must not accept operations" );
+		} catch ( final IllegalStateException e ) {
+			// expected
+		}
+
+		// operations submitted before still finish
+		release.countDown();
+		submitted.get();
+		io.awaitWrites();
+	}
+
+	/**
+	 * Queues the operations behind a blocking read and returns the order in
+	 * which they ran. Names starting with {@code w} are writes, names starting
+	 * with {@code b} are background reads.
+	 */
+	private static List< String > dispatchOrder( final BlockIoExecutor io, final String... operations ) throws Exception {
+		final CountDownLatch blocked = new CountDownLatch( 1 );
+		final CompletableFuture< Void > blocking = io.submitRead( () -> {
+			blocked.await();
+			return null;
+		} );
+
+		final List< String > order = Collections.synchronizedList( new ArrayList<>() );
+		final List< CompletableFuture< ? > > futures = new ArrayList<>();
+		for ( final String operation : operations ) {
+			if ( operation.startsWith( "w" ) ) {
+				futures.add( io.submitWrite( () -> {
+					order.add( operation );
+					return null;
+				} ) );
+			} else if ( operation.startsWith( "b" ) ) {
+				futures.add( io.submitBackgroundRead( () -> order.add( operation ) ) );
+			} else {
+				futures.add( io.submitRead( () -> order.add( operation ) ) );
+			}
+		}
+		assertEquals( operations.length, io.queuedReads() + io.queuedWrites() + io.queuedBackgroundReads() );
+		assertEquals( 1, io.runningOperations() );
+
+		blocked.countDown();
+		blocking.get();
+		for ( final CompletableFuture< ? > future : futures ) {
+			future.get();
+		}
+		return order;
+	}
+}
@@ -0,0 +1,63 @@
+package net.imglib2.test.cache.img;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.BulkAccessIo;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Checks that {@link BulkAccessIo} serializes cells exactly like the {@link AccessIo} it replaces.
+ */
+public class BulkAccessIoTest {
+
+	@Test
+	public void testSameBytesAsAccessIo() {
+		final NativeType< ? >[] types = { new ByteType(), new ShortType(), new IntType(), new LongType(), new FloatType(), new DoubleType() };
+		final Random random = new Random( 3 );
+		for ( final NativeType< ? > type : types ) {
+			for ( final boolean dirty : new boolean[] { false, true } ) {
+				check( AccessIo.get( type, dirty ? AccessFlags.setOf( AccessFlags.DIRTY ) : AccessFlags.setOf() ), random );
+			}
+		}
+	}
+
+	private static < A > void check( final AccessIo< A > accessIo, final Random random ) {
+		final BulkAccessIo< A > bulkIo = new BulkAccessIo<>( accessIo );
+		assertTrue( bulkIo.isBulk() );
+
+		final int numEntities = 1001;
+		final byte[] bytes = new byte[ numEntities * accessIo.getBytesPerElement() ];
+		random.nextBytes( bytes );
+
+		// loading
+		final A expected = accessIo.load( ByteBuffer.wrap( bytes ), numEntities );
+		final A actual = bulkIo.load( ByteBuffer.wrap( bytes ), numEntities );
+		assertTrue( actual.getClass() == expected.getClass() );
+		final Object storage = ( ( ArrayDataAccess< ? > ) actual ).getCurrentStorageArray();
+
+		// saving
+		final ByteBuffer saved = ByteBuffer.allocate( bytes.length );
+		bulkIo.save( actual, saved, numEntities );
+		assertArrayEquals( accessIo.getClass().getSimpleName(), bytes, saved.array() );
+
+		// copying typed N5 block data
+		final ByteBuffer copied = ByteBuffer.allocate( bytes.length );
+		accessIo.save( bulkIo.copyOf( storage, numEntities ), copied, numEntities );
+		assertArrayEquals( bytes, copied.array() );
+	}
+}
@@ -0,0 +1,43 @@
+package net.imglib2.test.cache.img;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import net.imglib2.cache.img.DurableBlockStore;
+
+public class DurableBlockStoreTest {
+
+	@Test
+	public void testDeleteCommitsFirst() throws IOException {
+		final Path dir = Files.createTempDirectory( "durable" );
+		final Path blockRoot = dir.resolve( "cache" );
+		final Path manifest = dir.resolve( "cache" + DurableBlockStore.MANIFEST_SUFFIX );
+		final DurableBlockStore store = new DurableBlockStore( blockRoot, manifest, new long[] { 2, 2 }, Arrays.asList( 1L, 2L ) );
+
+		// the block of cell 1 can not be deleted, as if the process crashed before deleting it
+		final Path block = blockRoot.resolve( "1" ).resolve( "0" );
+		Files.createDirectories( block );
+		Files.createFile( block.resolve( "stale" ) );
+		try {
+			store.delete( 1 );
+			fail( "Deleting the block must fail" );
+		} catch ( final IOException e ) {
+			// expected
+		}
+		store.close();
+
+		// the deletion was committed already, the stale block is not listed
+		assertTrue( Files.exists( block ) );
+		assertFalse( DurableBlockStore.readManifest( manifest ).contains( 1L ) );
+		assertEquals( 1, DurableBlockStore.readManifest( manifest ).size() );
+	}
+}
@@ -0,0 +1,81 @@
+package net.imglib2.test.cache.img;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.ByteAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Fills 2D cells with {@code (x + 3 * y) % 256}, such that every pixel can be
+ * checked wherever its cell came from, and counts the computed cells.
+ */
+public class GradientLoader implements CellLoader< UnsignedByteType >
+{
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@Override
+	public void load( final SingleCellArrayImg< UnsignedByteType, ? > cell ) throws Exception
+	{
+		loads.incrementAndGet();
+		final Cursor< UnsignedByteType > c = cell.localizingCursor();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.get().set( value( c.getLongPosition( 0 ), c.getLongPosition( 1 ) ) );
+		}
+	}
+
+	/**
+	 * @return the number of cells computed since the last {@link #resetLoads()}
+	 */
+	public int loads()
+	{
+		return loads.get();
+	}
+
+	public void resetLoads()
+	{
+		loads.set( 0 );
+	}
+
+	public static int value( final long x, final long y )
+	{
+		return ( int ) ( ( x + 3 * y ) % 256 );
+	}
+
+	/**
+	 * Checks that every pixel of {@code img} has the value computed by a
+	 * {@link GradientLoader}.
+	 */
+	public static void assertGradient( final RandomAccessibleInterval< UnsignedByteType > img )
+	{
+		final Cursor< UnsignedByteType > cursor = Views.iterable( img ).localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			assertEquals( "Value at location " + Util.printCoordinates( cursor ),
+					value( cursor.getLongPosition( 0 ), cursor.getLongPosition( 1 ) ), cursor.get().get() );
+		}
+	}
+
+	/**
+	 * Checks that every pixel of a cell has the value computed by a
+	 * {@link GradientLoader}.
+	 */
+	public static void assertGradient( final Cell< ? extends ByteAccess > cell )
+	{
+		assertGradient( Views.translate( ArrayImgs.unsignedBytes( cell.getData(), Intervals.dimensionsAsLongArray( cell ) ),
+				Intervals.minAsLongArray( cell ) ) );
+	}
+}
@@ -0,0 +1,55 @@
+package net.imglib2.test.cache.img;
+
+import java.io.IOException;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+
+/**
+ * Local stand-in for an N5 container in object storage: every block read and
+ * write is delayed by a fixed latency, and the container can not be listed.
+ */
+public class LatencyN5Writer extends N5FSWriter
+{
+	private final long latencyMillis;
+
+	public LatencyN5Writer( final String basePath, final long latencyMillis ) throws IOException
+	{
+		super( basePath );
+		this.latencyMillis = latencyMillis;
+	}
+
+	@Override
+	public DataBlock< ? > readBlock( final String pathName, final DatasetAttributes datasetAttributes, final long[] gridPosition ) throws IOException
+	{
+		delay();
+		return super.readBlock( pathName, datasetAttributes, gridPosition );
+	}
+
+	@Override
+	public < T > void writeBlock( final String pathName, final DatasetAttributes datasetAttributes, final DataBlock< T > dataBlock ) throws IOException
+	{
+		delay();
+		super.writeBlock( pathName, datasetAttributes, dataBlock );
+	}
+
+	@Override
+	public String[] list( final String pathName ) throws IOException
+	{
+		throw new UnsupportedOperationException( "Object storage must not be listed" );
+	}
+
+	private void delay() throws IOException
+	{
+		try
+		{
+			Thread.sleep( latencyMillis );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( e );
+		}
+	}
+}
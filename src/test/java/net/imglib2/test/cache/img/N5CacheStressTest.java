@@ -0,0 +1,241 @@
+package net.imglib2.test.cache.img;
+
+import static net.imglib2.cache.img.N5CachedCellImgOptions.options;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.Dirty;
+import net.imglib2.RandomAccess;
+import net.imglib2.cache.img.N5CachedCellImg;
+import net.imglib2.cache.img.N5CachedCellImgFactory;
+import net.imglib2.cache.img.N5CachedCellImgOptions;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions.CacheType;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.CellLocalizingCursor;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Util;
+
+/**
+ * Drives an {@link N5CachedCellImg} with many threads doing random reads and
+ * writes while a tiny in-memory cache forces constant evictions, and verifies
+ * every pixel afterwards, also after reopening the cache from N5.
+ * <p>
+ * Each thread writes a fixed value to the pixels it owns, hence every pixel
+ * must hold either the value computed by the loader or the written one,
+ * whichever thread evicts or reloads its cell, and pixels that were never
+ * written must hold the computed value. A write to the cell that is still
+ * the in-memory cell of its index after the write must never be lost. Only
+ * writes to a cell that another thread's access evicted meanwhile may be
+ * lost, because imglib2-cache does not keep a thread from writing to such a
+ * cell.
+ * </p>
+ * <p>
+ * Setting the system property {@code stress.operations} raises the number of
+ * operations per thread for macro-benchmark runs, which also report
+ * throughput and latency percentiles.
+ * </p>
+ */
+public class N5CacheStressTest {
+
+	private static final int NUM_THREADS = 8;
+
+	private static final boolean BENCHMARK = System.getProperty( "stress.operations" ) != null;
+
+	private static final int NUM_OPERATIONS = Integer.getInteger( "stress.operations", 2000 );
+
+	private static final long[] DIMENSIONS = { 256, 256, 64 };
+
+	private static final int[] CELL_DIMENSIONS = { 32, 32, 32 };
+
+	@Test
+	public void testSynchronousIo() throws Exception {
+		stress( "synchronous I/O", o -> o.maxConcurrentIo( 0 ) );
+	}
+
+	@Test
+	public void testAsynchronousIoWithOffHeapTier() throws Exception {
+		stress( "asynchronous I/O, off-heap tier", o -> o.maxConcurrentIo( 4 ).offHeapCacheSize( 4 * 32 * 32 * 32 * 2 ) );
+	}
+
+	private static void stress( final String name, final UnaryOperator< N5CachedCellImgOptions > configuration ) throws Exception {
+		final Path cacheDir = Files.createTempDirectory( "stress" );
+		final N5CachedCellImgOptions options = configuration.apply( options()
+				.cellDimensions( CELL_DIMENSIONS )
+				.dirtyAccesses( true )
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( 4 ) // far fewer than the 128 cells, every few accesses evict a cell
+				.cacheDirectory( cacheDir )
+				.deleteCacheDirectoryOnExit( true )
+				.warmRestart( true ) ); // writes the cells that are still in memory on close
+
+		final N5CachedCellImg< UnsignedShortType, ? > img = new N5CachedCellImgFactory<>( new UnsignedShortType(), options ).create(
+				DIMENSIONS, N5CacheStressTest::compute );
+
+		final BitSet[] written = new BitSet[ NUM_THREADS ];
+		final BitSet[] current = new BitSet[ NUM_THREADS ];
+		final long[][] latencies = new long[ NUM_THREADS ][];
+		final ExecutorService threads = Executors.newFixedThreadPool( NUM_THREADS );
+		final long start = System.nanoTime();
+		try {
+			final List< Future< ? > > futures = new ArrayList<>();
+			for ( int t = 0; t < NUM_THREADS; ++t ) {
+				final int thread = t;
+				written[ t ] = new BitSet();
+				current[ t ] = new BitSet();
+				latencies[ t ] = new long[ NUM_OPERATIONS ];
+				futures.add( threads.submit( () -> {
+					run( img, thread, written[ thread ], current[ thread ], latencies[ thread ] );
+					return null;
+				} ) );
+			}
+			for ( final Future< ? > future : futures ) {
+				future.get();
+			}
+		} finally {
+			threads.shutdown();
+		}
+		if ( BENCHMARK ) {
+			report( name, System.nanoTime() - start, latencies );
+		}
+
+		final long lost = verify( img, written, current );
+		img.close();
+
+		// the written cells must have been persisted, the others are computed again
+		final N5CachedCellImg< UnsignedShortType, ? > reloaded = new N5CachedCellImgFactory<>( new UnsignedShortType(),
+				options().cellDimensions( CELL_DIMENSIONS ).dirtyAccesses( true ).cacheDirectory( cacheDir ) ).create(
+				DIMENSIONS, N5CacheStressTest::compute );
+		assertEquals( "Lost updates after reloading", lost, verify( reloaded, written, current ) );
+	}
+
+	private static void compute( final SingleCellArrayImg< UnsignedShortType, ? > cell ) {
+		final Cursor< UnsignedShortType > c = cell.localizingCursor();
+		while ( c.hasNext() ) {
+			c.fwd();
+			c.get().set( computed( c.getLongPosition( 0 ), c.getLongPosition( 1 ), c.getLongPosition( 2 ) ) );
+		}
+	}
+
+	/**
+	 * Reads through a {@link RandomAccess}, and writes to the in-memory cell
+	 * obtained from the cache. Pixels whose cell was still the in-memory cell
+	 * of its index after the write are recorded in {@code current}.
+	 */
+	private static void run( final N5CachedCellImg< UnsignedShortType, ? > img, final int thread, final BitSet written,
+			final BitSet current, final long[] latencies ) throws Exception {
+		final Random random = new Random( thread );
+		final RandomAccess< UnsignedShortType > access = img.randomAccess();
+		final CellGrid grid = img.getCellGrid();
+		final long[] gridDims = grid.getGridDimensions();
+		final long[] position = new long[ DIMENSIONS.length ];
+		final long[] cellPosition = new long[ DIMENSIONS.length ];
+		for ( int i = 0; i < latencies.length; ++i ) {
+			for ( int d = 0; d < position.length; ++d ) {
+				position[ d ] = ( long ) ( random.nextDouble() * DIMENSIONS[ d ] );
+			}
+			final boolean write = random.nextInt( 4 ) == 0;
+			if ( write ) {
+				// the pixels along x are owned by the threads in turn
+				position[ 0 ] -= position[ 0 ] % NUM_THREADS - thread;
+			}
+			final long start = System.nanoTime();
+			if ( write ) {
+				grid.getCellPosition( position, cellPosition );
+				final long key = IntervalIndexer.positionToIndex( cellPosition, gridDims );
+				final Cell< ? > cell = img.getCache().get( key );
+				( ( ShortAccess ) cell.getData() ).setValue( cell.globalPositionToIndex( position ),
+						( short ) overwritten( position[ 0 ], position[ 1 ], position[ 2 ] ) );
+				( ( Dirty ) cell.getData() ).setDirty();
+				final int index = ( int ) IntervalIndexer.positionToIndex( position, DIMENSIONS );
+				written.set( index );
+				if ( img.getCache().getIfPresent( key ) == cell ) {
+					current.set( index );
+				}
+			} else {
+				access.setPosition( position );
+				final int value = access.get().get();
+				final int computed = computed( position[ 0 ], position[ 1 ], position[ 2 ] );
+				final int overwritten = overwritten( position[ 0 ], position[ 1 ], position[ 2 ] );
+				assertTrue( "Corrupted value " + value + " at " + Arrays.toString( position ),
+						value == computed || value == overwritten );
+			}
+			latencies[ i ] = System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Checks that no write to a current cell was lost.
+	 *
+	 * @return the number of pixels written only to evicted cells that hold the
+	 *         computed value
+	 */
+	private static long verify( final N5CachedCellImg< UnsignedShortType, ? > img, final BitSet[] written,
+			final BitSet[] current ) {
+		long lost = 0;
+		final CellLocalizingCursor< UnsignedShortType, ? > cursor = img.localizingCursor();
+		final long[] position = new long[ DIMENSIONS.length ];
+		while ( cursor.hasNext() ) {
+			cursor.fwd();
+			cursor.localize( position );
+			final int index = ( int ) IntervalIndexer.positionToIndex( position, DIMENSIONS );
+			final int owner = ( int ) ( position[ 0 ] % NUM_THREADS );
+			final int value = cursor.get().get();
+			final int computed = computed( position[ 0 ], position[ 1 ], position[ 2 ] );
+			if ( current[ owner ].get( index ) ) {
+				assertEquals( "Lost update at " + Util.printCoordinates( cursor ),
+						overwritten( position[ 0 ], position[ 1 ], position[ 2 ] ), value );
+			} else if ( written[ owner ].get( index ) ) {
+				assertTrue( "Corrupted value " + value + " at " + Util.printCoordinates( cursor ),
+						value == computed || value == overwritten( position[ 0 ], position[ 1 ], position[ 2 ] ) );
+				if ( value == computed ) {
+					++lost;
+				}
+			} else {
+				assertEquals( "Value at " + Util.printCoordinates( cursor ), computed, value );
+			}
+		}
+		return lost;
+	}
+
+	private static void report( final String name, final long wallClock, final long[][] latencies ) {
+		final long[] all = new long[ NUM_THREADS * NUM_OPERATIONS ];
+		for ( int t = 0; t < NUM_THREADS; ++t ) {
+			System.arraycopy( latencies[ t ], 0, all, t * NUM_OPERATIONS, NUM_OPERATIONS );
+		}
+		Arrays.sort( all );
+		System.out.println( String.format( "%s: %d threads, %.0f ops/s, latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f ms",
+				name, NUM_THREADS, all.length / ( wallClock * 1e-9 ), percentile( all, 0.5 ) * 1e-3,
+				percentile( all, 0.99 ) * 1e-3, percentile( all, 0.999 ) * 1e-3, all[ all.length - 1 ] * 1e-6 ) );
+	}
+
+	private static long percentile( final long[] sorted, final double p ) {
+		return sorted[ Math.min( sorted.length - 1, ( int ) ( p * sorted.length ) ) ];
+	}
+
+	private static int computed( final long x, final long y, final long z ) {
+		return ( int ) ( ( x * 31 + y * 17 + z * 7 ) & 0xffff );
+	}
+
+	private static int overwritten( final long x, final long y, final long z ) {
+		return ~computed( x, y, z ) & 0xffff;
+	}
+}
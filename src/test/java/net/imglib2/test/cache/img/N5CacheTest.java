@@ -1,27 +1,71 @@
 package net.imglib2.test.cache.img;
 
 import static net.imglib2.cache.img.N5CachedCellImgOptions.options;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 
 import org.junit.Test;
 
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.AccessTraceReplay;
 import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellAccessProfile;
 import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.DurableBlockStore;
+import net.imglib2.cache.img.N5CachedCellImg;
 import net.imglib2.cache.img.N5CachedCellImgFactory;
 import net.imglib2.cache.img.N5CachedCellImgOptions;
+import net.imglib2.cache.img.N5CachedCellImgOptions.Durability;
+import net.imglib2.cache.img.N5CachedCellImgOptions.FloatEncoding;
+import net.imglib2.cache.img.N5CachedCellImgOptions.PersistencePolicy;
+import net.imglib2.cache.img.N5CellCache;
 import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions.CacheType;
 import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.cache.img.SparseAccesses;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellCursor;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.img.cell.CellLocalizingCursor;
 import net.imglib2.img.cell.CellRandomAccess;
+import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Fraction;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
+import net.imglib2.view.Views;
 
 /**
  * Integration test checking whether a N5-backed cache that saves blocks to a known folder can be opened as another cache.
@@ -87,4 +131,690 @@ public class N5CacheTest {
 			assertEquals("Values did not match at location " + Util.printCoordinates(imgCursor), imgCursor.get(), reloadedImgAccess.get());
 		}
 	}
+
+	@Test
+	public void testBitTypeCache() throws IOException {
+		// cell sizes that are no multiple of 64 make sure that packed entities do not align with cell borders
+		final int[] cellDimensions = new int[] { 60, 60, 60 };
+		final long[] dimensions = new long[] { 640, 640, 128 };
+
+		final Path cacheDir = Files.createTempDirectory("bitcache");
+
+		final N5CachedCellImgOptions options = options()
+				.cellDimensions( cellDimensions )
+				.dirtyAccesses(false)
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( 0 )
+				.cacheDirectory(cacheDir)
+				.deleteCacheDirectoryOnExit(false);
+
+		final CachedCellImg< BitType, ? > img = new N5CachedCellImgFactory<>( new BitType(), options ).create(
+				dimensions,
+				new CellLoader< BitType >() {
+					@Override
+					public void load(SingleCellArrayImg<BitType, ?> cell) throws Exception {
+						final Cursor< BitType > cursor = cell.localizingCursor();
+						while ( cursor.hasNext() ) {
+							cursor.fwd();
+							cursor.get().set( ( cursor.getLongPosition( 0 ) + 3 * cursor.getLongPosition( 1 ) + cursor.getLongPosition( 2 ) ) % 7 == 0 );
+						}
+					}
+				} );
+
+		final CellCursor<BitType, ?> cacheCursor = img.cursor();
+		while(cacheCursor.hasNext()) {
+			cacheCursor.next();
+		}
+
+		final CachedCellImg< BitType, ? > reloadedImg = new N5CachedCellImgFactory<>( new BitType(), options().cellDimensions( cellDimensions ).cacheDirectory(cacheDir) ).create(
+				dimensions, new CellLoader<BitType>() {
+					@Override
+					public void load(SingleCellArrayImg<BitType, ?> cell) throws Exception {
+						fail("Cell " + Util.printInterval(cell) + " should be loaded from disk, not from cell loader!");
+					}
+				} );
+
+		final CellLocalizingCursor<BitType, ?> imgCursor = img.localizingCursor();
+		final CellRandomAccess<BitType, ?> reloadedImgAccess = reloadedImg.randomAccess();
+		while(imgCursor.hasNext()) {
+			imgCursor.fwd();
+			reloadedImgAccess.setPosition(imgCursor);
+			assertEquals("Values did not match at location " + Util.printCoordinates(imgCursor), imgCursor.get(), reloadedImgAccess.get());
+		}
+	}
+
+	@Test
+	public void testQuantizedFloatCache() throws IOException {
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 128 };
+
+		final Path cacheDir = Files.createTempDirectory("floatcache");
+
+		final N5CachedCellImgOptions options = options()
+				.cellDimensions( cellDimensions )
+				.dirtyAccesses(false)
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( 0 )
+				.floatEncoding( FloatEncoding.SCALED_16 )
+				.cacheDirectory(cacheDir)
+				.deleteCacheDirectoryOnExit(false);
+
+		final CachedCellImg< FloatType, ? > img = new N5CachedCellImgFactory<>( new FloatType(), options ).create(
+				dimensions,
+				new CellLoader< FloatType >() {
+					@Override
+					public void load(SingleCellArrayImg<FloatType, ?> cell) throws Exception {
+						final Cursor< FloatType > cursor = cell.localizingCursor();
+						while ( cursor.hasNext() ) {
+							cursor.fwd();
+							cursor.get().set( ( float ) Math.sin( 0.01 * ( cursor.getLongPosition( 0 ) + 2 * cursor.getLongPosition( 1 ) + cursor.getLongPosition( 2 ) ) ) );
+						}
+					}
+				} );
+
+		final CellCursor<FloatType, ?> cacheCursor = img.cursor();
+		while(cacheCursor.hasNext()) {
+			cacheCursor.next();
+		}
+
+		final CachedCellImg< FloatType, ? > reloadedImg = new N5CachedCellImgFactory<>( new FloatType(), options().cellDimensions( cellDimensions ).floatEncoding( FloatEncoding.SCALED_16 ).cacheDirectory(cacheDir) ).create(
+				dimensions, new CellLoader<FloatType>() {
+					@Override
+					public void load(SingleCellArrayImg<FloatType, ?> cell) throws Exception {
+						fail("Cell " + Util.printInterval(cell) + " should be loaded from disk, not from cell loader!");
+					}
+				} );
+
+		// values lie within [-1, 1], hence the error is at most 2 / 131068
+		final CellLocalizingCursor<FloatType, ?> imgCursor = img.localizingCursor();
+		final CellRandomAccess<FloatType, ?> reloadedImgAccess = reloadedImg.randomAccess();
+		while(imgCursor.hasNext()) {
+			imgCursor.fwd();
+			reloadedImgAccess.setPosition(imgCursor);
+			assertEquals("Values did not match at location " + Util.printCoordinates(imgCursor), imgCursor.get().get(), reloadedImgAccess.get().get(), 2.0 / 131068 + 1e-6);
+		}
+	}
+
+	@Test
+	public void testObjectStoreStandIn() throws IOException {
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 128 };
+
+		final Path containerDir = Files.createTempDirectory("objectstore");
+		final CellGrid cellGrid = new CellGrid( dimensions, cellDimensions );
+
+		final N5CachedCellImgOptions options = options()
+				.cellDimensions( cellDimensions )
+				.dirtyAccesses(false)
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( 0 )
+				.n5Writer( new LatencyN5Writer( containerDir.toString(), 2 ) );
+
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(), options ).create(
+				dimensions, new CheckerboardLoader( cellGrid ) );
+		final CellCursor<UnsignedByteType, ?> cacheCursor = img.cursor();
+		while(cacheCursor.hasNext()) {
+			cacheCursor.next();
+		}
+		// waits for the concurrent uploads and records the present cells
+		img.close();
+
+		final N5CachedCellImg< UnsignedByteType, ? > reloadedImg = new N5CachedCellImgFactory<>( new UnsignedByteType(), options().cellDimensions( cellDimensions ).n5Writer( new LatencyN5Writer( containerDir.toString(), 2 ) ) ).create(
+				dimensions, new CellLoader<UnsignedByteType>() {
+					@Override
+					public void load(SingleCellArrayImg<UnsignedByteType, ?> cell) throws Exception {
+						fail("Cell " + Util.printInterval(cell) + " should be loaded from the container, not from cell loader!");
+					}
+				} );
+
+		// read all cells concurrently
+		reloadedImg.getIntersectingCells( reloadedImg );
+
+		final CellLocalizingCursor<UnsignedByteType, ?> imgCursor = img.localizingCursor();
+		final CellRandomAccess<UnsignedByteType, ?> reloadedImgAccess = reloadedImg.randomAccess();
+		while(imgCursor.hasNext()) {
+			imgCursor.fwd();
+			reloadedImgAccess.setPosition(imgCursor);
+			assertEquals("Values did not match at location " + Util.printCoordinates(imgCursor), imgCursor.get(), reloadedImgAccess.get());
+		}
+	}
+
+	@Test
+	public void testMaterialize() throws IOException {
+		final int[] cellDimensions = new int[] { 32, 32, 32 };
+		final long[] dimensions = new long[] { 200, 100, 64 };
+
+		final Path cacheDir = Files.createTempDirectory("materialize");
+		final CellGrid cellGrid = new CellGrid( dimensions, cellDimensions );
+
+		final N5CachedCellImgOptions options = options()
+				.cellDimensions( cellDimensions )
+				.dirtyAccesses(false)
+				.cacheDirectory(cacheDir)
+				.deleteCacheDirectoryOnExit(false);
+
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(), options ).create(
+				dimensions, new CheckerboardLoader( cellGrid ) );
+		final long numCells = Intervals.numElements( cellGrid.getGridDimensions() );
+		final AtomicLong done = new AtomicLong();
+		assertEquals( numCells, img.materialize( false, new ForkJoinPool( 4 ), ( cells, total ) -> done.accumulateAndGet( cells, Math::max ) ) );
+		assertEquals( numCells, done.get() );
+		// all cells are present, resuming writes nothing
+		assertEquals( 0, img.materialize() );
+
+		final N5CachedCellImg< UnsignedByteType, ? > reloadedImg = new N5CachedCellImgFactory<>( new UnsignedByteType(), options().cellDimensions( cellDimensions ).cacheDirectory(cacheDir) ).create(
+				dimensions, new CellLoader<UnsignedByteType>() {
+					@Override
+					public void load(SingleCellArrayImg<UnsignedByteType, ?> cell) throws Exception {
+						fail("Cell " + Util.printInterval(cell) + " should have been materialized!");
+					}
+				} );
+
+		final CellLocalizingCursor<UnsignedByteType, ?> imgCursor = img.localizingCursor();
+		final CellRandomAccess<UnsignedByteType, ?> reloadedImgAccess = reloadedImg.randomAccess();
+		while(imgCursor.hasNext()) {
+			imgCursor.fwd();
+			reloadedImgAccess.setPosition(imgCursor);
+			assertEquals("Values did not match at location " + Util.printCoordinates(imgCursor), imgCursor.get(), reloadedImgAccess.get());
+		}
+	}
+
+	@Test
+	public void testInvalidate() throws IOException {
+		final int[] cellDimensions = new int[] { 16, 16 };
+		final long[] dimensions = new long[] { 100, 100 };
+
+		final AtomicInteger parameter = new AtomicInteger( 1 );
+		final N5CachedCellImgOptions options = options()
+				.cellDimensions( cellDimensions )
+				.dirtyAccesses(false)
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( 4 );
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(), options ).create(
+				dimensions, cell -> cell.forEach( t -> t.set( parameter.get() ) ) );
+		img.materialize();
+
+		// the parameter changes for a region, only its cells are computed again
+		parameter.set( 2 );
+		final FinalInterval region = Intervals.createMinMax( 20, 40, 50, 60 );
+		img.invalidate( region );
+
+		final CellLocalizingCursor<UnsignedByteType, ?> cursor = img.localizingCursor();
+		final CellGrid grid = img.getCellGrid();
+		while(cursor.hasNext()) {
+			cursor.fwd();
+			boolean affected = true;
+			for (int d = 0; d < 2; ++d) {
+				final long cell = cursor.getLongPosition( d ) / grid.cellDimension( d );
+				affected &= cell >= region.min( d ) / grid.cellDimension( d ) && cell <= region.max( d ) / grid.cellDimension( d );
+			}
+			assertEquals("Value at location " + Util.printCoordinates(cursor), affected ? 2 : 1, cursor.get().get());
+		}
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testTinyLfuRequiresOffHeapTier() {
+		// the policy only applies to the off-heap tier, it does not bound the in-memory cache
+		new N5CachedCellImgFactory<>( new UnsignedByteType(), options()
+				.cellDimensions( 16, 16 )
+				.offHeapPolicy( N5CachedCellImgOptions.OffHeapPolicy.TINY_LFU ) ).create( 64, 64 );
+	}
+
+	@Test
+	public void testFingerprint() throws IOException {
+		final int[] cellDimensions = new int[] { 16, 16 };
+		final long[] dimensions = new long[] { 64, 64 };
+		final Path cacheDir = Files.createTempDirectory("fingerprint");
+		final CellGrid cellGrid = new CellGrid( dimensions, cellDimensions );
+
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(),
+				options().cellDimensions( cellDimensions ).cacheDirectory( cacheDir ).fingerprint( "threshold=1" ) ).create(
+				dimensions, new CheckerboardLoader( cellGrid ) );
+		img.materialize();
+
+		// the same computation reuses the cells
+		final N5CachedCellImg< UnsignedByteType, ? > reused = new N5CachedCellImgFactory<>( new UnsignedByteType(),
+				options().cellDimensions( cellDimensions ).cacheDirectory( cacheDir ).fingerprint( "threshold=1" ) ).create(
+				dimensions, new CellLoader<UnsignedByteType>() {
+					@Override
+					public void load(SingleCellArrayImg<UnsignedByteType, ?> cell) throws Exception {
+						fail("Cell " + Util.printInterval(cell) + " should be reused!");
+					}
+				} );
+		assertEquals( 0, reused.materialize() );
+
+		// another computation does not see them
+		final N5CachedCellImg< UnsignedByteType, ? > recomputed = new N5CachedCellImgFactory<>( new UnsignedByteType(),
+				options().cellDimensions( cellDimensions ).cacheDirectory( cacheDir ).fingerprint( "threshold=2" ) ).create(
+				dimensions, new CheckerboardLoader( cellGrid ) );
+		assertEquals( Intervals.numElements( cellGrid.getGridDimensions() ), recomputed.materialize() );
+	}
+
+	@Test
+	public void testAppend() throws IOException {
+		final int[] cellDimensions = new int[] { 16, 16 };
+		final Path cacheDir = Files.createTempDirectory("append");
+		final N5CachedCellImgOptions options = options()
+				.cellDimensions( cellDimensions )
+				.dirtyAccesses(false)
+				.cacheDirectory( cacheDir )
+				.appendable( true );
+
+		final GradientLoader loader = new GradientLoader();
+
+		// the last row of cells is incomplete
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(), options ).create(
+				new long[] { 64, 40 }, loader );
+		img.materialize();
+		img.close();
+
+		loader.resetLoads();
+		final N5CachedCellImg< UnsignedByteType, ? > grown = new N5CachedCellImgFactory<>( new UnsignedByteType(), options ).create(
+				new long[] { 64, 70 }, loader );
+		GradientLoader.assertGradient( grown );
+		// the former border row is completed, the two new rows are computed, the others are read
+		assertEquals( 3 * 4, loader.loads() );
+
+		// an open image grows on the same N5 cache
+		loader.resetLoads();
+		final N5CachedCellImg< UnsignedByteType, ? > appended = grown.append( 100 );
+		assertArrayEquals( new long[] { 64, 100 }, Intervals.dimensionsAsLongArray( appended ) );
+		GradientLoader.assertGradient( appended );
+		assertEquals( 3 * 4, loader.loads() );
+		appended.close();
+
+		// the pixels of the former border cells share their last long with computed pixels
+		final N5CachedCellImgOptions bitOptions = options()
+				.cellDimensions( 10, 10 )
+				.dirtyAccesses( false )
+				.cacheDirectory( Files.createTempDirectory( "appendBits" ) )
+				.appendable( true );
+		final N5CachedCellImg< BitType, ? > bits = new N5CachedCellImgFactory<>( new BitType(), bitOptions ).create(
+				new long[] { 30, 25 }, cell -> {
+					final Cursor< BitType > cursor = cell.localizingCursor();
+					while ( cursor.hasNext() ) {
+						cursor.fwd();
+						cursor.get().set( bit( cursor.getLongPosition( 0 ), cursor.getLongPosition( 1 ) ) );
+					}
+				} );
+		bits.materialize();
+		final N5CachedCellImg< BitType, ? > grownBits = bits.append( 42 );
+		final Cursor< BitType > cursor = grownBits.localizingCursor();
+		while ( cursor.hasNext() ) {
+			cursor.fwd();
+			assertEquals( "Value at location " + Util.printCoordinates( cursor ),
+					bit( cursor.getLongPosition( 0 ), cursor.getLongPosition( 1 ) ), cursor.get().get() );
+		}
+		grownBits.close();
+	}
+
+	private static boolean bit( final long x, final long y ) {
+		return ( x + 3 * y ) % 5 == 0;
+	}
+
+	@Test
+	public void testSparse() throws Exception {
+		final Path cacheDir = Files.createTempDirectory("sparse");
+		final N5CachedCellImgOptions options = options()
+				.cellDimensions( 16, 16 )
+				.dirtyAccesses( true )
+				.cacheDirectory( cacheDir )
+				.warmRestart( true )
+				.sparse( true );
+		final CellLoader< UnsignedShortType > loader = cell -> fail( "Cells of a sparse image are not computed" );
+
+		final N5CachedCellImg< UnsignedShortType, ? > img = new N5CachedCellImgFactory<>( new UnsignedShortType(), options ).create(
+				new long[] { 64, 64 }, loader );
+		final RandomAccess< UnsignedShortType > access = img.randomAccess();
+		access.setPosition( new long[] { 5, 5 } );
+		access.get().set( 7 );
+		access.setPosition( new long[] { 40, 50 } );
+		access.get().set( 9 );
+
+		long fill = 0;
+		for ( final Cell< ? > cell : img.getCells() ) {
+			// the unwritten cells share their array
+			if ( cell.getData() instanceof SparseAccesses.Fill && ( ( SparseAccesses.Fill ) cell.getData() ).isFill() ) {
+				++fill;
+			}
+		}
+		assertEquals( 16 - 2, fill );
+		img.close();
+
+		final N5CachedCellImg< UnsignedShortType, ? > reopened = new N5CachedCellImgFactory<>( new UnsignedShortType(), options ).create(
+				new long[] { 64, 64 }, loader );
+		// only the written cells were persisted
+		long present = 0;
+		for ( long key = 0; key < 16; ++key ) {
+			if ( reopened.getN5CellCache().isPresent( key ) ) {
+				++present;
+			}
+		}
+		assertEquals( 2, present );
+		final CellLocalizingCursor< UnsignedShortType, ? > cursor = reopened.localizingCursor();
+		while ( cursor.hasNext() ) {
+			cursor.fwd();
+			final long x = cursor.getLongPosition( 0 );
+			final long y = cursor.getLongPosition( 1 );
+			assertEquals( "Value at location " + Util.printCoordinates( cursor ),
+					x == 5 && y == 5 ? 7 : x == 40 && y == 50 ? 9 : 0, cursor.get().get() );
+		}
+
+		// reading the storage array of an empty cell keeps it shared, only writing to it makes a copy
+		final ArrayDataAccess< ? > empty = ( ArrayDataAccess< ? > ) reopened.getCache().get( 1L ).getData();
+		final Object zeros = empty.getCurrentStorageArray();
+		assertTrue( ( ( SparseAccesses.Fill ) empty ).isFill() );
+		assertNotSame( zeros, SparseAccesses.writableStorageArray( empty ) );
+		assertFalse( ( ( SparseAccesses.Fill ) empty ).isFill() );
+	}
+
+	@Test
+	public void testAccessProfile() throws IOException {
+		final N5CachedCellImgOptions options = options()
+				.cellDimensions( 16, 16 )
+				.dirtyAccesses( false )
+				.accessProfile( true );
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(), options ).create(
+				new long[] { 64, 48 }, cell -> {} );
+		for ( final UnsignedByteType t : img ) {
+			t.get();
+		}
+
+		final CellAccessProfile profile = img.getN5CellCache().accessProfile();
+		for ( long key = 0; key < 4 * 3; ++key ) {
+			assertEquals( 1, profile.get( CellAccessProfile.Counter.MISSES, key ) );
+			assertEquals( 1, profile.get( CellAccessProfile.Counter.COMPUTATIONS, key ) );
+		}
+		assertEquals( 0, profile.total( CellAccessProfile.Counter.N5_READS ) );
+
+		final Path exportDir = Files.createTempDirectory( "profile" );
+		final N5FSWriter n5 = new N5FSWriter( exportDir.toString() );
+		profile.export( n5, "profile" );
+		final RandomAccessibleInterval< UnsignedLongType > misses = N5Utils.open( n5, "profile/misses" );
+		assertEquals( 4, misses.dimension( 0 ) );
+		assertEquals( 3, misses.dimension( 1 ) );
+		assertArrayEquals( new long[] { 16, 16 }, n5.getAttribute( "profile/misses", "downsamplingFactors", long[].class ) );
+		for ( final UnsignedLongType count : Views.iterable( misses ) ) {
+			assertEquals( 1, count.get() );
+		}
+		img.close();
+	}
+
+	@Test
+	public void testCellWithHalo() throws IOException {
+		final N5CachedCellImgOptions options = options()
+				.cellDimensions( 16, 16 )
+				.dirtyAccesses( false );
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(), options ).create(
+				new long[] { 64, 40 }, new GradientLoader() );
+		// some neighbors are read from N5, the others are computed
+		img.materialize( false, ForkJoinPool.commonPool(), null );
+		img.invalidate( new FinalInterval( new long[] { 16, 16 }, new long[] { 31, 31 } ) );
+
+		// an inner cell, and a cell at the border of the incomplete last row
+		for ( final long cellIndex : new long[] { 5, 9 } ) {
+			final RandomAccessibleInterval< UnsignedByteType > halo = img.getCellWithHalo( cellIndex, 3, 2 );
+			final long[] min = new long[ 2 ];
+			final int[] dims = new int[ 2 ];
+			img.getCellGrid().getCellDimensions( cellIndex, min, dims );
+			for ( int d = 0; d < 2; ++d ) {
+				final int h = d == 0 ? 3 : 2;
+				assertEquals( Math.max( 0, min[ d ] - h ), halo.min( d ) );
+				assertEquals( Math.min( img.dimension( d ) - 1, min[ d ] + dims[ d ] - 1 + h ), halo.max( d ) );
+			}
+			GradientLoader.assertGradient( halo );
+		}
+		img.close();
+	}
+
+	@Test
+	public void testDurable() throws IOException {
+		final Path cacheDir = Files.createTempDirectory("durable");
+		final N5CachedCellImgOptions options = options()
+				.cellDimensions( 16, 16 )
+				.dirtyAccesses( false )
+				.cacheDirectory( cacheDir )
+				.durability( Durability.DURABLE );
+		final GradientLoader loader = new GradientLoader();
+
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(), options ).create(
+				new long[] { 64, 40 }, loader );
+		img.materialize();
+		img.invalidate( new FinalInterval( new long[] { 0, 0 }, new long[] { 15, 15 } ) );
+		img.close();
+
+		// the manifest lists the published blocks, the invalidated one was deleted
+		final Path manifest = cacheDir.resolve( "cache" + DurableBlockStore.MANIFEST_SUFFIX );
+		assertEquals( 4 * 3 - 1, DurableBlockStore.readManifest( manifest ).size() );
+		// a torn record and a block that was never published are ignored
+		Files.write( manifest, new byte[] { 1, 2, 3 }, StandardOpenOption.APPEND );
+		Files.write( cacheDir.resolve( "cache" ).resolve( "0" ).resolve( ".0.1.tmp" ), new byte[] { 4, 5 } );
+
+		loader.resetLoads();
+		final N5CachedCellImg< UnsignedByteType, ? > reopened = new N5CachedCellImgFactory<>( new UnsignedByteType(), options ).create(
+				new long[] { 64, 40 }, loader );
+		GradientLoader.assertGradient( reopened );
+		// only the invalidated cell is computed again
+		assertEquals( 1, loader.loads() );
+		reopened.close();
+	}
+
+	@Test
+	public void testOrderedWrites() throws Exception {
+		final Path cacheDir = Files.createTempDirectory( "ordered" );
+		final CellGrid grid = new CellGrid( new long[] { 32, 32 }, new int[] { 16, 16 } );
+		final CacheLoader< Long, Cell< ByteArray > > emptyCells = key -> {
+			final long[] min = new long[ 2 ];
+			final int[] dims = new int[ 2 ];
+			grid.getCellDimensions( key, min, dims );
+			return new Cell<>( dims, min, new ByteArray( dims[ 0 ] * dims[ 1 ] ) );
+		};
+		// the first write is the slowest, a newer write of the same block would finish before it
+		final AtomicInteger writes = new AtomicInteger();
+		final Executor slowFirstWrite = task -> new Thread( () -> {
+			if ( writes.getAndIncrement() == 0 ) {
+				try {
+					Thread.sleep( 500 );
+				} catch ( final InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			task.run();
+		} ).start();
+		final N5CellCache< UnsignedByteType, ByteArray > cache = new N5CellCache<>( cacheDir, grid, emptyCells,
+				new Fraction(), AccessIo.get( new UnsignedByteType(), AccessFlags.setOf() ), new UnsignedByteType(),
+				options().maxConcurrentIo( 4 ).ioExecutor( slowFirstWrite ).values() );
+
+		// evicted twice while the first write is still running
+		final Cell< ByteArray > first = cache.get( 0L );
+		first.getData().setValue( 0, ( byte ) 1 );
+		cache.onRemoval( 0L, first );
+		final Cell< ByteArray > second = cache.get( 0L );
+		assertNotSame( first, second );
+		assertEquals( 1, second.getData().getValue( 0 ) );
+		second.getData().setValue( 0, ( byte ) 2 );
+		// the evicted cell was serialized already
+		first.getData().setValue( 0, ( byte ) 3 );
+		cache.onRemoval( 0L, second );
+		cache.flush();
+		assertEquals( 2, writes.get() );
+
+		final N5CellCache< UnsignedByteType, ByteArray > reopened = new N5CellCache<>( cacheDir, grid, emptyCells,
+				new Fraction(), AccessIo.get( new UnsignedByteType(), AccessFlags.setOf() ), new UnsignedByteType(),
+				options().values() );
+		assertEquals( 2, reopened.get( 0L ).getData().getValue( 0 ) );
+	}
+
+	@Test
+	public void testIntersectingCellsOutside() throws IOException {
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(),
+				options().cellDimensions( 16, 16 ).dirtyAccesses( false ) ).create( new long[] { 64, 40 }, cell -> {} );
+		// left of and below the image, the divisions must round down
+		assertEquals( 0, img.getIntersectingCells( new FinalInterval( new long[] { -20, 0 }, new long[] { -1, 39 } ) ).size() );
+		assertEquals( 0, img.getIntersectingCells( new FinalInterval( new long[] { 0, 40 }, new long[] { 63, 50 } ) ).size() );
+		// overlapping the border
+		assertEquals( 2, img.getIntersectingCells( new FinalInterval( new long[] { -20, -5 }, new long[] { 0, 16 } ) ).size() );
+		img.close();
+	}
+
+	@Test
+	public void testCostAwarePersistence() throws Exception {
+		final N5CachedCellImgOptions options = options()
+				.cellDimensions( 64, 64 )
+				.dirtyAccesses( true )
+				.volatileAccesses( false )
+				.cacheDirectory( Files.createTempDirectory( "costaware" ) )
+				.persistencePolicy( PersistencePolicy.COST_AWARE );
+		// computing an empty cell is far cheaper than writing and reading its block
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(), options ).create(
+				new long[] { 256, 64 }, cell -> {} );
+		@SuppressWarnings( "unchecked" )
+		final N5CellCache< UnsignedByteType, ByteArray > cache = ( N5CellCache< UnsignedByteType, ByteArray > ) img.getN5CellCache();
+
+		// written while the throughput is not known yet
+		cache.onRemoval( 0L, cache.get( 0L ) );
+		assertTrue( cache.isPresent( 0 ) );
+		// computed and unmodified, hence dropped
+		cache.onRemoval( 1L, cache.get( 1L ) );
+		assertFalse( cache.isPresent( 1 ) );
+		assertEquals( 1, cache.statistics().skippedWrites() );
+		// modified after it was computed, hence written however cheap it is
+		final Cell< ByteArray > modified = cache.get( 2L );
+		modified.getData().setValue( 0, ( byte ) 5 );
+		cache.onRemoval( 2L, modified );
+		assertTrue( cache.isPresent( 2 ) );
+		// a dropped cell that is modified after it was computed again is written as well
+		final Cell< ByteArray > recomputed = cache.get( 1L );
+		recomputed.getData().setValue( 0, ( byte ) 7 );
+		cache.onRemoval( 1L, recomputed );
+		assertTrue( cache.isPresent( 1 ) );
+		assertEquals( 1, cache.statistics().skippedWrites() );
+		img.close();
+	}
+
+	@Test
+	public void testGetAll() throws Exception {
+		final GradientLoader loader = new GradientLoader();
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(),
+				options().cellDimensions( 16, 16 ).dirtyAccesses( false ).volatileAccesses( false ) ).create(
+				new long[] { 64, 40 }, loader );
+		@SuppressWarnings( "unchecked" )
+		final N5CellCache< UnsignedByteType, ByteArray > cache = ( N5CellCache< UnsignedByteType, ByteArray > ) img.getN5CellCache();
+		// the first half of the cells is written to N5
+		for ( long key = 0; key < 6; ++key ) {
+			cache.onRemoval( key, cache.get( key ) );
+		}
+		cache.flush();
+		loader.resetLoads();
+
+		final List< Long > keys = new ArrayList<>();
+		for ( long key = 11; key >= 0; --key ) {
+			keys.add( key );
+		}
+		final Map< Long, Cell< ByteArray > > cells = cache.getAll( keys );
+		// the first dimension varies slowest in the container
+		assertEquals( Arrays.asList( 0L, 4L, 8L, 1L, 5L, 9L, 2L, 6L, 10L, 3L, 7L, 11L ), new ArrayList<>( cells.keySet() ) );
+		// the absent cells are computed, the others are read
+		assertEquals( 6, loader.loads() );
+		for ( final Map.Entry< Long, Cell< ByteArray > > entry : cells.entrySet() ) {
+			final long[] min = new long[ 2 ];
+			img.getCellGrid().getCellDimensions( entry.getKey(), min, new int[ 2 ] );
+			assertArrayEquals( min, Intervals.minAsLongArray( entry.getValue() ) );
+			GradientLoader.assertGradient( entry.getValue() );
+		}
+		img.close();
+	}
+
+	@Test
+	public void testAccessTrace() throws IOException {
+		final Path trace = Files.createTempDirectory( "trace" ).resolve( "trace.txt" );
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(),
+				options().cellDimensions( 16, 16 ).dirtyAccesses( false ).accessTrace( trace ) ).create(
+				new long[] { 64, 40 }, new GradientLoader() );
+		for ( final UnsignedByteType t : img ) {
+			t.get();
+		}
+		assertTrue( img.getN5CellCache().accessTrace().isRecording() );
+		img.close();
+
+		final AccessTraceReplay.Trace recorded = AccessTraceReplay.Trace.read( trace );
+		assertArrayEquals( new long[] { 64, 40 }, recorded.dimensions() );
+		assertArrayEquals( new int[] { 16, 16 }, recorded.cellDimensions() );
+		assertEquals( 4 * 3, recorded.numRequests() );
+
+		// every recorded cell lies in one of the wider cells, each of which is computed once
+		final GradientLoader loader = new GradientLoader();
+		final AccessTraceReplay.Result result = AccessTraceReplay.replay( recorded, new UnsignedByteType(),
+				options().cellDimensions( 32, 16 ).dirtyAccesses( false ), loader );
+		assertEquals( 4 * 3, result.requests() );
+		assertEquals( 2 * 3, loader.loads() );
+		assertEquals( 2 * 3, result.statistics().loaderCalls() );
+		assertEquals( 0.5, result.hitRate(), 1e-9 );
+	}
+
+	@Test
+	public void testWarmRestart() throws Exception {
+		final N5CachedCellImgOptions options = options()
+				.cellDimensions( 16, 16 )
+				.dirtyAccesses( false )
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( 8 )
+				.cacheDirectory( Files.createTempDirectory( "warmrestart" ) )
+				.warmRestart( true );
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(), options ).create(
+				new long[] { 64, 40 }, new GradientLoader() );
+		final RandomAccess< UnsignedByteType > access = img.randomAccess();
+		for ( final long key : new long[] { 5, 2, 7 } ) {
+			access.setPosition( new long[] { key % 4 * 16, key / 4 * 16 } );
+			access.get().get();
+		}
+		img.close();
+
+		final GradientLoader loader = new GradientLoader();
+		final N5CachedCellImg< UnsignedByteType, ? > reopened = new N5CachedCellImgFactory<>( new UnsignedByteType(), options ).create(
+				new long[] { 64, 40 }, loader );
+		// most recently loaded first
+		assertArrayEquals( new long[] { 7, 2, 5 }, reopened.getN5CellCache().storedHotSet() );
+		// the hot set is read back in the background
+		final long deadline = System.currentTimeMillis() + 10000;
+		for ( final long key : new long[] { 7, 2, 5 } ) {
+			while ( reopened.getCache().getIfPresent( key ) == null ) {
+				assertTrue( "Cell " + key + " was not reloaded", System.currentTimeMillis() < deadline );
+				Thread.sleep( 10 );
+			}
+		}
+		assertEquals( 0, loader.loads() );
+		GradientLoader.assertGradient( reopened );
+		reopened.close();
+	}
+
+	@Test
+	@SuppressWarnings( "unchecked" )
+	public void testForEachCell() throws IOException {
+		final GradientLoader loader = new GradientLoader();
+		final N5CachedCellImg< UnsignedByteType, ? > img = new N5CachedCellImgFactory<>( new UnsignedByteType(),
+				options().cellDimensions( 16, 16 ).dirtyAccesses( false ).volatileAccesses( false ) ).create(
+				new long[] { 64, 40 }, loader );
+		// the first cell is in memory and modified
+		final RandomAccess< UnsignedByteType > access = img.randomAccess();
+		access.setPosition( new long[] { 0, 0 } );
+		access.get().set( 200 );
+
+		final List< Cell< ? > > cells = new ArrayList<>();
+		img.forEachCell( img, 2, cells::add );
+		assertEquals( 4 * 3, cells.size() );
+		assertSame( img.getCache().getIfPresent( 0L ), cells.get( 0 ) );
+		assertEquals( ( byte ) 200, ( ( ByteArray ) cells.get( 0 ).getData() ).getValue( 0 ) );
+		for ( int key = 1; key < cells.size(); ++key ) {
+			// in flat order of the cell grid
+			final long[] min = new long[ 2 ];
+			img.getCellGrid().getCellDimensions( key, min, new int[ 2 ] );
+			assertArrayEquals( min, Intervals.minAsLongArray( cells.get( key ) ) );
+			GradientLoader.assertGradient( ( Cell< ByteArray > ) cells.get( key ) );
+			// streamed cells are not inserted into the in-memory cache
+			assertNull( img.getCache().getIfPresent( ( long ) key ) );
+		}
+		assertEquals( 4 * 3, loader.loads() );
+		img.close();
+	}
 }
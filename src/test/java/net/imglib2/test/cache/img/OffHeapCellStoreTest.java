@@ -0,0 +1,192 @@
+package net.imglib2.test.cache.img;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.CellMemoryBudget;
+import net.imglib2.cache.img.FrequencySketch;
+import net.imglib2.cache.img.OffHeapCellStore;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.DirtyByteArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.util.Intervals;
+
+public class OffHeapCellStoreTest {
+
+	private static final int CELL_SIZE = 64;
+
+	@Test
+	public void testRoundTrip() {
+		final OffHeapCellStore< DirtyByteArray > store = new OffHeapCellStore<>( 4 * CELL_SIZE, dirtyIo() );
+
+		assertTrue( store.put( 3, dirtyCell( 3 ), CELL_SIZE, false ).isEmpty() );
+		assertTrue( store.put( 5, dirtyCell( 5 ), CELL_SIZE, true ).isEmpty() );
+		assertEquals( 2, store.size() );
+		assertEquals( 2 * CELL_SIZE, store.sizeInBytes() );
+
+		// a copy leaves the cell in the store
+		final Cell< DirtyByteArray > copy = store.copy( 3 );
+		assertArrayEquals( new long[] { 3 * CELL_SIZE }, Intervals.minAsLongArray( copy ) );
+		assertArrayEquals( data( 3 ), copy.getData().getCurrentStorageArray() );
+		assertTrue( store.contains( 3 ) );
+
+		// cells that were not persisted come back dirty, such that they are written on their next eviction
+		final Cell< DirtyByteArray > unpersisted = store.remove( 3 );
+		assertArrayEquals( data( 3 ), unpersisted.getData().getCurrentStorageArray() );
+		assertTrue( unpersisted.getData().isDirty() );
+		final Cell< DirtyByteArray > persisted = store.remove( 5 );
+		assertArrayEquals( data( 5 ), persisted.getData().getCurrentStorageArray() );
+		assertFalse( persisted.getData().isDirty() );
+
+		assertFalse( store.contains( 3 ) );
+		assertNull( store.remove( 3 ) );
+		assertEquals( 0, store.sizeInBytes() );
+	}
+
+	@Test
+	public void testLruEviction() {
+		final OffHeapCellStore< ByteArray > store = new OffHeapCellStore<>( 2 * CELL_SIZE, AccessIo.get( new UnsignedByteType(), AccessFlags.setOf() ) );
+		store.put( 0, cell( 0, new ByteArray( data( 0 ) ) ), CELL_SIZE, false );
+		store.put( 1, cell( 1, new ByteArray( data( 1 ) ) ), CELL_SIZE, false );
+		store.copy( 0 );
+
+		// cell 1 is the least recently used one
+		final List< OffHeapCellStore.Entry > victims = store.put( 2, cell( 2, new ByteArray( data( 2 ) ) ), CELL_SIZE, false );
+		assertEquals( 1, victims.size() );
+		assertEquals( 1, victims.get( 0 ).key() );
+
+		// evicting cells can be read until they are handed back
+		assertTrue( store.contains( 1 ) );
+		assertArrayEquals( data( 1 ), store.copy( 1 ).getData().getCurrentStorageArray() );
+		store.evicted( victims.get( 0 ) );
+		assertFalse( store.contains( 1 ) );
+		assertNull( store.copy( 1 ) );
+
+		// cells larger than the store are not admitted
+		assertNull( store.put( 3, new Cell<>( new int[] { 3 * CELL_SIZE }, new long[] { 0 }, new ByteArray( 3 * CELL_SIZE ) ), 3 * CELL_SIZE, false ) );
+		assertEquals( 2, store.size() );
+	}
+
+	@Test
+	public void testTinyLfuAdmission() {
+		final OffHeapCellStore< DirtyByteArray > store = new OffHeapCellStore<>( 2 * CELL_SIZE, dirtyIo(), new FrequencySketch( 16 ) );
+		for ( long key = 0; key < 2; ++key ) {
+			for ( int i = 0; i < 3; ++i ) {
+				store.recordAccess( key );
+			}
+			store.put( key, dirtyCell( key ), CELL_SIZE, false );
+		}
+
+		// a cell requested once does not displace the cells that are requested repeatedly
+		store.recordAccess( 2 );
+		assertNull( store.put( 2, dirtyCell( 2 ), CELL_SIZE, false ) );
+		assertFalse( store.contains( 2 ) );
+		assertEquals( 2, store.size() );
+
+		// once it is requested more often than the least recently used cell, it is admitted
+		for ( int i = 0; i < 4; ++i ) {
+			store.recordAccess( 2 );
+		}
+		final List< OffHeapCellStore.Entry > victims = store.put( 2, dirtyCell( 2 ), CELL_SIZE, false );
+		assertEquals( 1, victims.size() );
+		assertEquals( 0, victims.get( 0 ).key() );
+		assertTrue( store.contains( 2 ) );
+	}
+
+	@Test
+	public void testSharedBudget() {
+		// the off-heap tiers of two images, which could each hold four cells
+		final CellMemoryBudget budget = new CellMemoryBudget( 3 * CELL_SIZE );
+		final OffHeapCellStore< DirtyByteArray > first = new OffHeapCellStore<>( 4 * CELL_SIZE, dirtyIo(), null, budget );
+		final OffHeapCellStore< DirtyByteArray > second = new OffHeapCellStore<>( 4 * CELL_SIZE, dirtyIo(), null, budget );
+		final List< OffHeapCellStore.Entry > handedOver = new ArrayList<>();
+		first.setEvictionHandler( handedOver::add );
+
+		first.put( 0, dirtyCell( 0 ), CELL_SIZE, false );
+		first.put( 1, dirtyCell( 1 ), CELL_SIZE, false );
+		assertTrue( second.put( 0, dirtyCell( 0 ), CELL_SIZE, false ).isEmpty() );
+		assertEquals( 3 * CELL_SIZE, budget.usedBytes() );
+
+		// the least recently used cell of all images is evicted by the image it belongs to
+		assertTrue( second.put( 1, dirtyCell( 1 ), CELL_SIZE, false ).isEmpty() );
+		assertEquals( 1, handedOver.size() );
+		assertEquals( 0, handedOver.get( 0 ).key() );
+		assertEquals( 3 * CELL_SIZE, budget.usedBytes() );
+		assertEquals( 1, first.size() );
+		assertEquals( 2, second.size() );
+		// the victim can be read until it is handed back
+		assertArrayEquals( data( 0 ), first.copy( 0 ).getData().getCurrentStorageArray() );
+		first.evicted( handedOver.get( 0 ) );
+		assertFalse( first.contains( 0 ) );
+
+		// the cells of a closed image no longer count
+		first.detach();
+		assertEquals( 2 * CELL_SIZE, budget.usedBytes() );
+		second.put( 2, dirtyCell( 2 ), CELL_SIZE, false );
+		assertEquals( 1, handedOver.size() );
+		assertEquals( 3, second.size() );
+		assertEquals( 3 * CELL_SIZE, budget.usedBytes() );
+	}
+
+	@Test
+	public void testReservedBudget() {
+		final CellMemoryBudget budget = new CellMemoryBudget( 4 * CELL_SIZE );
+		final OffHeapCellStore< DirtyByteArray > store = new OffHeapCellStore<>( 4 * CELL_SIZE, dirtyIo(), null, budget );
+		final List< OffHeapCellStore.Entry > handedOver = new ArrayList<>();
+		store.setEvictionHandler( handedOver::add );
+		for ( long key = 0; key < 3; ++key ) {
+			store.put( key, dirtyCell( key ), CELL_SIZE, false );
+		}
+
+		// the in-memory cache of an image takes two cells of the budget, the off-heap tier keeps the rest
+		budget.reserve( 2 * CELL_SIZE );
+		assertEquals( 2 * CELL_SIZE, budget.reservedBytes() );
+		assertEquals( 1, handedOver.size() );
+		assertEquals( 0, handedOver.get( 0 ).key() );
+		assertEquals( 2 * CELL_SIZE, budget.usedBytes() );
+
+		// the reservations must not exceed the budget
+		try {
+			budget.reserve( 3 * CELL_SIZE );
+			fail( "The budget must not be over-committed" );
+		} catch ( final IllegalArgumentException e ) {
+			// expected
+		}
+		assertEquals( 2 * CELL_SIZE, budget.reservedBytes() );
+
+		budget.release( 2 * CELL_SIZE );
+		assertEquals( 0, budget.reservedBytes() );
+	}
+
+	private static AccessIo< DirtyByteArray > dirtyIo() {
+		return AccessIo.get( new UnsignedByteType(), AccessFlags.setOf( AccessFlags.DIRTY ) );
+	}
+
+	private static Cell< DirtyByteArray > dirtyCell( final long key ) {
+		return cell( key, new DirtyByteArray( data( key ) ) );
+	}
+
+	private static < A > Cell< A > cell( final long key, final A access ) {
+		return new Cell<>( new int[] { CELL_SIZE }, new long[] { key * CELL_SIZE }, access );
+	}
+
+	private static byte[] data( final long key ) {
+		final byte[] data = new byte[ CELL_SIZE ];
+		for ( int i = 0; i < data.length; ++i ) {
+			data[ i ] = ( byte ) ( key * 7 + i );
+		}
+		return data;
+	}
+}